@@ -0,0 +1,77 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.HighlightedRanges;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.apache.lucene.analysis.br.BrazilianAnalyzer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Highlights a stripped field with the Lucene based dynamic snippeter, and
+ * picks its passage from the backend highlights with the native one.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DynamicSnippeterBenchmark {
+
+    @Param
+    public PortugueseCorpus.Size size;
+
+    @Param
+    public PortugueseCorpus.Density density;
+
+    private CharSequence stripped;
+
+    private QueryMatchPlan plan;
+
+    private BrazilianAnalyzer analyzer;
+
+    private DynamicSnippeter snippeter;
+
+    private HighlightedRanges ranges;
+
+    private NativeDynamicSnippeter nativeSnippeter;
+
+    @Setup
+    public void setup() {
+        HighlightStripper stripper = new HighlightStripper();
+        stripped = stripper.strip(PortugueseCorpus.content(size, density, 42), true);
+        ranges = stripper.ranges();
+        analyzer = new BrazilianAnalyzer();
+        plan = QueryMatchPlan.of(PortugueseCorpus.newQuery(), analyzer);
+        snippeter = new DynamicSnippeter(analyzer, "<b>", "</b>", "...", 320);
+        nativeSnippeter = new NativeDynamicSnippeter("<b>", "</b>", "...", 320);
+    }
+
+    @TearDown
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    @Benchmark
+    public String highlight() throws IOException {
+        return snippeter.highlight(plan, stripped);
+    }
+
+    @Benchmark
+    public String nativeHighlight() {
+        return nativeSnippeter.highlight(stripped, ranges, stripped.length());
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.TokenBoundaries;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per field passes preceding snippet generation: stripping the Juniper
+ * tags while locating the highlights, and scanning the words.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HighlightStripperBenchmark {
+
+    @Param
+    public PortugueseCorpus.Size size;
+
+    @Param
+    public PortugueseCorpus.Density density;
+
+    private String content;
+
+    private CharSequence stripped;
+
+    private final HighlightStripper stripper = new HighlightStripper();
+
+    private final TokenBoundaries tokens = new TokenBoundaries();
+
+    @Setup
+    public void setup() {
+        content = PortugueseCorpus.content(size, density, 42);
+        stripped = new HighlightStripper().strip(content, true);
+    }
+
+    @Benchmark
+    public void strip(Blackhole blackhole) {
+        blackhole.consume(stripper.strip(content, true));
+        blackhole.consume(stripper.ranges());
+    }
+
+    @Benchmark
+    public TokenBoundaries scanTokens() {
+        tokens.scan(stripped);
+        return tokens;
+    }
+
+}
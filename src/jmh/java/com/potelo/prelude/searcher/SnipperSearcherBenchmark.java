@@ -0,0 +1,137 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.component.ComponentId;
+import com.yahoo.component.chain.Chain;
+import com.yahoo.container.QrSearchersConfig;
+import com.yahoo.prelude.Index;
+import com.yahoo.prelude.IndexFacts;
+import com.yahoo.prelude.IndexModel;
+import com.yahoo.prelude.SearchDefinition;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.Searcher;
+import com.yahoo.search.result.Hit;
+import com.yahoo.search.searchchain.Execution;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snips a result through a search chain, from stripping the fields to setting
+ * the snippets on the hits, for snip and dynsnip fields on their own and together.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SnipperSearcherBenchmark {
+
+    /** The commands of the benchmarked field. */
+    public enum Commands {
+        SNIP("snip"), DYNSNIP("dynsnip"), BOTH("snip", "dynsnip");
+
+        final String[] commands;
+
+        Commands(String ... commands) {
+            this.commands = commands;
+        }
+    }
+
+    @Param
+    public PortugueseCorpus.Size size;
+
+    @Param
+    public PortugueseCorpus.Density density;
+
+    @Param
+    public Commands commands;
+
+    @Param("10")
+    public int hitCount;
+
+    private String[] contents;
+
+    private SnipperSearcher searcher;
+
+    private IndexFacts indexFacts;
+
+    @Setup
+    public void setup() {
+        contents = new String[hitCount];
+        for (int i = 0; i < hitCount; ++i)
+            contents[i] = PortugueseCorpus.content(size, density, i);
+
+        searcher = new SnipperSearcher(new ComponentId("benchmark"), new QrSearchersConfig.Builder().build(),
+                                       new SnipperConfig.Builder().build(), new RecordingMetric());
+
+        Index body = new Index("body");
+        body.setHighlightSummary(true);
+        for (String command : commands.commands)
+            body.addCommand(command);
+        SearchDefinition article = new SearchDefinition("article");
+        article.addIndex(body);
+        indexFacts = new IndexFacts(new IndexModel(article));
+    }
+
+    @TearDown
+    public void tearDown() {
+        searcher.deconstruct();
+    }
+
+    @Benchmark
+    public Result processHits() {
+        // hits are snipped once per request, and dynsnip replaces their content.
+        Execution execution = new Execution(new Chain<>(searcher, new Backend(contents)),
+                                            Execution.Context.createContextStub(indexFacts));
+        Result result = execution.search(PortugueseCorpus.newQuery());
+        execution.fill(result, "default");
+        return result;
+    }
+
+    // Returns a fresh unfilled hit per content, and fills them with it.
+    private static class Backend extends Searcher {
+
+        private final String[] contents;
+
+        Backend(String[] contents) {
+            this.contents = contents;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            for (int i = 0; i < contents.length; ++i) {
+                FastHit hit = new FastHit("id:benchmark:article::" + i, 1.0);
+                hit.setFillable();
+                hit.setField(Hit.SDDOCNAME_FIELD, "article");
+                result.hits().add(hit);
+            }
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            for (int i = 0; i < contents.length; ++i) {
+                Hit hit = result.hits().get(i);
+                hit.setField("body", contents[i]);
+                hit.setFilled(summaryClass);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.HitSnippets;
+import com.yahoo.component.ComponentId;
+import com.yahoo.component.chain.Chain;
+import com.yahoo.container.QrSearchersConfig;
+import com.yahoo.prelude.Index;
+import com.yahoo.prelude.IndexFacts;
+import com.yahoo.prelude.IndexModel;
+import com.yahoo.prelude.SearchDefinition;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.Searcher;
+import com.yahoo.search.result.Hit;
+import com.yahoo.search.searchchain.Execution;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the snippets of a result as JSON, in the full and compact formats.
+ * The bytes written per result are printed on setup.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SnippetRenderingBenchmark {
+
+    @Param
+    public PortugueseCorpus.Size size;
+
+    @Param
+    public PortugueseCorpus.Density density;
+
+    @Param({"full", "compact"})
+    public String format;
+
+    @Param("100")
+    public int hitCount;
+
+    private HitSnippets[] snippets;
+
+    private final StringBuilder target = new StringBuilder();
+
+    @Setup
+    public void setup() {
+        SnipperSearcher searcher = new SnipperSearcher(new ComponentId("benchmark"), new QrSearchersConfig.Builder().build(),
+                                                       new SnipperConfig.Builder().build(), new RecordingMetric());
+        Index body = new Index("body");
+        body.setHighlightSummary(true);
+        body.addCommand("snip");
+        SearchDefinition article = new SearchDefinition("article");
+        article.addIndex(body);
+
+        Execution execution = new Execution(new Chain<>(searcher, new Backend(size, density, hitCount)),
+                                            Execution.Context.createContextStub(new IndexFacts(new IndexModel(article))));
+        Query query = PortugueseCorpus.newQuery();
+        query.properties().set(SnippetSettings.FORMAT, format);
+        Result result = execution.search(query);
+        execution.fill(result, "default");
+        searcher.deconstruct();
+
+        snippets = new HitSnippets[hitCount];
+        for (int i = 0; i < hitCount; ++i)
+            snippets[i] = (HitSnippets) result.hits().get(i).getField("snippets");
+        System.out.println(format + ": " + render().length() + " chars per result");
+    }
+
+    @Benchmark
+    public StringBuilder render() {
+        target.setLength(0);
+        for (HitSnippets hitSnippets : snippets)
+            hitSnippets.writeJson(target);
+        return target;
+    }
+
+    // Returns filled hits of the corpus.
+    private static class Backend extends Searcher {
+
+        private final PortugueseCorpus.Size size;
+
+        private final PortugueseCorpus.Density density;
+
+        private final int hitCount;
+
+        Backend(PortugueseCorpus.Size size, PortugueseCorpus.Density density, int hitCount) {
+            this.size = size;
+            this.density = density;
+            this.hitCount = hitCount;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            for (int i = 0; i < hitCount; ++i) {
+                FastHit hit = new FastHit("id:benchmark:article::" + i, 1.0);
+                hit.setFillable();
+                hit.setField(Hit.SDDOCNAME_FIELD, "article");
+                result.hits().add(hit);
+            }
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            for (int i = 0; i < hitCount; ++i) {
+                Hit hit = result.hits().get(i);
+                hit.setField("body", PortugueseCorpus.content(size, density, i));
+                hit.setFilled(summaryClass);
+            }
+        }
+
+    }
+
+}
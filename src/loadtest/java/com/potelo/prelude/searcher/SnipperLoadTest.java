@@ -0,0 +1,352 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.component.ComponentId;
+import com.yahoo.component.chain.Chain;
+import com.yahoo.container.QrSearchersConfig;
+import com.yahoo.prelude.Index;
+import com.yahoo.prelude.IndexFacts;
+import com.yahoo.prelude.IndexModel;
+import com.yahoo.prelude.SearchDefinition;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.Searcher;
+import com.yahoo.search.result.Hit;
+import com.yahoo.search.searchchain.Execution;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs queries through SnipperSearcher from concurrent threads, the way a
+ * container does, and reports their throughput, latency percentiles and the
+ * bytes allocated per query. Fails when they regress past a stored baseline.
+ * <p>
+ * Arguments are key=value pairs, see DEFAULTS. With update=true the measured
+ * values are written as the new baseline instead of checked against it.
+ * A baseline stores the settings it was measured with, and is only checked
+ * against runs with the same settings.
+ * Latencies and throughput depend on the machine, so the committed baseline
+ * only holds the bytes allocated per query; the latencies are checked against
+ * a baseline written on the machine that checks it, see the README.
+ */
+public final class SnipperLoadTest {
+
+    private static final String[][] DEFAULTS = {
+            {"threads", "8"},
+            {"warmup", "10"},          // seconds
+            {"duration", "20"},        // seconds
+            {"hits", "10"},            // hits per query
+            {"size", "MEDIUM"},
+            {"density", "SPARSE"},
+            {"dynsnip", "LUCENE"},
+            {"baseline", "src/loadtest/baseline.properties"},
+            {"update", "false"},
+    };
+
+    // The prefix of the settings stored in a baseline
+    private static final String SETTING_PREFIX = "setting.";
+
+    // How far past the baseline each measure may go, as a fraction of it
+    private static final String[][] TOLERANCES = {
+            {"latency.p50.ms", "0.30"},
+            {"latency.p99.ms", "0.50"},
+            {"latency.p999.ms", "1.00"},
+            {"allocated.bytes.per.query", "0.10"},
+    };
+
+    private SnipperLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties settings = new Properties();
+        for (String[] setting : DEFAULTS)
+            settings.setProperty(setting[0], setting[1]);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0 || settings.getProperty(arg.substring(0, equals)) == null)
+                throw new IllegalArgumentException("Unknown argument '" + arg + "', expected key=value with keys "
+                                                   + Arrays.deepToString(DEFAULTS));
+            settings.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+
+        Properties measured = run(settings);
+        measured.forEach((key, value) -> System.out.println(key + " = " + value));
+
+        Path baselinePath = Paths.get(settings.getProperty("baseline"));
+        if (Boolean.parseBoolean(settings.getProperty("update"))) {
+            Properties baseline = runSettings(settings);
+            baseline.putAll(measured);
+            try (OutputStream out = Files.newOutputStream(baselinePath)) {
+                baseline.store(out, "SnipperLoadTest baseline: " + describe(settings));
+            }
+            System.out.println("Baseline written to " + baselinePath);
+            return;
+        }
+        if ( ! Files.exists(baselinePath)) {
+            System.out.println("No baseline at " + baselinePath + ", nothing to check");
+            return;
+        }
+
+        Properties baseline = new Properties();
+        try (InputStream in = Files.newInputStream(baselinePath)) {
+            baseline.load(in);
+        }
+        List<String> mismatches = mismatches(baseline, settings);
+        if ( ! mismatches.isEmpty()) {
+            System.out.println("Baseline at " + baselinePath + " was measured with other settings, nothing to check: "
+                               + String.join(", ", mismatches));
+            return;
+        }
+        List<String> regressions = regressions(baseline, measured);
+        if ( ! regressions.isEmpty()) {
+            regressions.forEach(regression -> System.err.println("REGRESSION " + regression));
+            System.exit(1);
+        }
+        System.out.println("No regression against " + baselinePath);
+    }
+
+    private static Properties run(Properties settings) throws InterruptedException {
+        int threads = Integer.parseInt(settings.getProperty("threads"));
+        int hits = Integer.parseInt(settings.getProperty("hits"));
+        long warmupNanos = Long.parseLong(settings.getProperty("warmup")) * 1_000_000_000L;
+        long durationNanos = Long.parseLong(settings.getProperty("duration")) * 1_000_000_000L;
+
+        // a pool of contents larger than a query, so hits vary between queries.
+        PortugueseCorpus.Size size = PortugueseCorpus.Size.valueOf(settings.getProperty("size"));
+        PortugueseCorpus.Density density = PortugueseCorpus.Density.valueOf(settings.getProperty("density"));
+        String[] contents = new String[4 * hits];
+        for (int i = 0; i < contents.length; ++i)
+            contents[i] = PortugueseCorpus.content(size, density, i);
+
+        SnipperConfig.Builder config = new SnipperConfig.Builder()
+                .dynsnip(SnipperConfig.Dynsnip.Enum.valueOf(settings.getProperty("dynsnip")));
+        SnipperSearcher searcher = new SnipperSearcher(new ComponentId("loadtest"), new QrSearchersConfig.Builder().build(),
+                                                       config.build(), new RecordingMetric());
+        IndexFacts indexFacts = indexFacts();
+
+        Worker[] workers = new Worker[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(i, searcher, indexFacts, contents, hits, start + warmupNanos,
+                                    start + warmupNanos + durationNanos, done);
+            workers[i].start();
+        }
+        done.await();
+        searcher.deconstruct();
+
+        long queries = 0, allocated = 0;
+        long[] latencies = new long[0];
+        for (Worker worker : workers) {
+            if (worker.failure != null)
+                throw new IllegalStateException("Worker " + worker.getName() + " failed", worker.failure);
+            queries += worker.count;
+            allocated += worker.allocated;
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + worker.count);
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+        }
+        if (queries == 0)
+            throw new IllegalStateException("No query completed within the duration");
+        Arrays.sort(latencies);
+
+        Properties measured = new Properties();
+        measured.setProperty("throughput.qps", format(queries / (durationNanos / 1e9)));
+        measured.setProperty("latency.p50.ms", format(percentile(latencies, 0.50) / 1e6));
+        measured.setProperty("latency.p99.ms", format(percentile(latencies, 0.99) / 1e6));
+        measured.setProperty("latency.p999.ms", format(percentile(latencies, 0.999) / 1e6));
+        measured.setProperty("allocated.bytes.per.query", Long.toString(allocated / queries));
+        return measured;
+    }
+
+    // The settings the measures depend on, as stored in a baseline
+    private static Properties runSettings(Properties settings) {
+        Properties runSettings = new Properties();
+        for (String[] setting : DEFAULTS) {
+            if ( ! setting[0].equals("baseline") && ! setting[0].equals("update"))
+                runSettings.setProperty(SETTING_PREFIX + setting[0], settings.getProperty(setting[0]));
+        }
+        return runSettings;
+    }
+
+    private static List<String> mismatches(Properties baseline, Properties settings) {
+        List<String> mismatches = new ArrayList<>();
+        for (String key : runSettings(settings).stringPropertyNames()) {
+            String expected = baseline.getProperty(key);
+            String value = settings.getProperty(key.substring(SETTING_PREFIX.length()));
+            if ( ! value.equals(expected))
+                mismatches.add(key.substring(SETTING_PREFIX.length()) + "=" + value + " (baseline " + expected + ")");
+        }
+        return mismatches;
+    }
+
+    private static List<String> regressions(Properties baseline, Properties measured) {
+        List<String> regressions = new ArrayList<>();
+        for (String[] tolerance : TOLERANCES) {
+            String expected = baseline.getProperty(tolerance[0]);
+            if (expected == null)
+                continue;
+            double limit = Double.parseDouble(expected) * (1 + Double.parseDouble(tolerance[1]));
+            double value = Double.parseDouble(measured.getProperty(tolerance[0]));
+            if (value > limit)
+                regressions.add(tolerance[0] + ": " + format(value) + " is past " + format(limit)
+                                + " (baseline " + expected + " + " + tolerance[1] + ")");
+        }
+        return regressions;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String describe(Properties settings) {
+        StringBuilder description = new StringBuilder();
+        for (String[] setting : DEFAULTS) {
+            if ( ! setting[0].equals("baseline") && ! setting[0].equals("update"))
+                description.append(setting[0]).append('=').append(settings.getProperty(setting[0])).append(' ');
+        }
+        return description.append("on ").append(Runtime.getRuntime().availableProcessors()).append(" processors").toString();
+    }
+
+    private static IndexFacts indexFacts() {
+        Index body = new Index("body");
+        body.setHighlightSummary(true);
+        body.addCommand("snip");
+        body.addCommand("dynsnip");
+        SearchDefinition article = new SearchDefinition("article");
+        article.addIndex(body);
+        return new IndexFacts(new IndexModel(article));
+    }
+
+    // Runs queries until the end, measuring only those started after the warmup.
+    private static class Worker extends Thread {
+
+        private final SnipperSearcher searcher;
+
+        private final IndexFacts indexFacts;
+
+        private final String[] contents;
+
+        private final int hits;
+
+        private final long measureFrom;
+
+        private final long end;
+
+        private final CountDownLatch done;
+
+        long[] latencies = new long[1024];
+
+        int count;
+
+        long allocated;
+
+        Throwable failure;
+
+        Worker(int id, SnipperSearcher searcher, IndexFacts indexFacts, String[] contents, int hits,
+               long measureFrom, long end, CountDownLatch done) {
+            super("loadtest-" + id);
+            this.searcher = searcher;
+            this.indexFacts = indexFacts;
+            this.contents = contents;
+            this.hits = hits;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            try {
+                long allocatedFrom = -1;
+                for (int query = 0; ; ++query) {
+                    long start = System.nanoTime();
+                    if (start >= end)
+                        break;
+                    if (start >= measureFrom && allocatedFrom < 0)
+                        allocatedFrom = threads.getThreadAllocatedBytes(getId());
+
+                    execute((getId() * 31 + query) % contents.length);
+
+                    if (allocatedFrom >= 0) {
+                        if (count == latencies.length)
+                            latencies = Arrays.copyOf(latencies, 2 * count);
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                }
+                if (allocatedFrom >= 0)
+                    allocated = threads.getThreadAllocatedBytes(getId()) - allocatedFrom;
+            }
+            catch (Throwable t) {
+                failure = t;
+            }
+            finally {
+                done.countDown();
+            }
+        }
+
+        private void execute(long firstContent) {
+            Execution execution = new Execution(new Chain<>(searcher, new Backend(contents, (int) firstContent, hits)),
+                                                Execution.Context.createContextStub(indexFacts));
+            Query query = PortugueseCorpus.newQuery();
+            Result result = execution.search(query);
+            execution.fill(result, "default");
+        }
+
+    }
+
+    // Returns fresh unfilled hits, and fills them with consecutive contents of the pool.
+    private static class Backend extends Searcher {
+
+        private final String[] contents;
+
+        private final int first;
+
+        private final int hits;
+
+        Backend(String[] contents, int first, int hits) {
+            this.contents = contents;
+            this.first = first;
+            this.hits = hits;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            for (int i = 0; i < hits; ++i) {
+                FastHit hit = new FastHit("id:loadtest:article::" + (first + i), 1.0);
+                hit.setFillable();
+                hit.setField(Hit.SDDOCNAME_FIELD, "article");
+                result.hits().add(hit);
+            }
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            for (int i = 0; i < result.hits().size(); ++i) {
+                Hit hit = result.hits().get(i);
+                hit.setField("body", contents[(first + i) % contents.length]);
+                hit.setFilled(summaryClass);
+            }
+        }
+
+    }
+
+}
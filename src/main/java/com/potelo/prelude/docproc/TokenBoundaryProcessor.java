@@ -0,0 +1,105 @@
+package com.potelo.prelude.docproc;
+
+import com.potelo.prelude.hitfield.TokenBoundaryCodec;
+import com.yahoo.docproc.DocumentProcessor;
+import com.yahoo.docproc.Processing;
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentOperation;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentUpdate;
+import com.yahoo.document.Field;
+import com.yahoo.document.datatypes.FieldValue;
+import com.yahoo.document.datatypes.StringFieldValue;
+import com.yahoo.document.update.FieldUpdate;
+import com.yahoo.document.update.ValueUpdate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores, at feed time, the word boundaries of the text fields having a
+ * companion field named after them with the suffix
+ * {@link TokenBoundaryCodec#COMPANION_SUFFIX}, so
+ * SnipperSearcher doesn't scan their words on every query.
+ * <p>
+ * Note: companion fields must be string summary fields of the document type,
+ * listed in the summary classes the snip and dynsnip fields are filled with.
+ * Puts and assignments of whole text fields are processed, other updates
+ * leave the companion to be rejected at query time.
+ */
+public class TokenBoundaryProcessor extends DocumentProcessor
+{
+
+    @Override
+    public Progress process(Processing processing)
+    {
+        for (DocumentOperation operation : processing.getDocumentOperations())
+        {
+            if (operation instanceof DocumentPut)
+                process(((DocumentPut) operation).getDocument());
+            else if (operation instanceof DocumentUpdate)
+                process((DocumentUpdate) operation);
+        }
+        return Progress.DONE;
+    }
+
+    private static void process(Document document)
+    {
+        DocumentType type = document.getDataType();
+        for (Field field : type.getFields())
+        {
+            Field companion = companionOf(type, field);
+            if (companion == null)
+                continue;
+
+            FieldValue value = document.getFieldValue(field);
+            if (value instanceof StringFieldValue)
+            {
+                String text = ((StringFieldValue) value).getString();
+                document.setFieldValue(companion, new StringFieldValue(TokenBoundaryCodec.encode(text)));
+            }
+            else
+                document.removeFieldValue(companion);
+        }
+    }
+
+    private static void process(DocumentUpdate update)
+    {
+        List<FieldUpdate> companionUpdates = new ArrayList<>();
+        for (FieldUpdate fieldUpdate : update.fieldUpdates())
+        {
+            Field companion = companionOf(update.getDocumentType(), fieldUpdate.getField());
+            if (companion == null)
+                continue;
+
+            for (ValueUpdate<?> valueUpdate : fieldUpdate.getValueUpdates())
+            {
+                ValueUpdate.ValueUpdateClassID id = valueUpdate.getValueUpdateClassID();
+                if (id == ValueUpdate.ValueUpdateClassID.ASSIGN && valueUpdate.getValue() instanceof StringFieldValue)
+                {
+                    String text = ((StringFieldValue) valueUpdate.getValue()).getString();
+                    companionUpdates.add(FieldUpdate.createAssign(companion, new StringFieldValue(TokenBoundaryCodec.encode(text))));
+                }
+                else if (id == ValueUpdate.ValueUpdateClassID.ASSIGN || id == ValueUpdate.ValueUpdateClassID.CLEAR)
+                    companionUpdates.add(FieldUpdate.createClearField(companion));
+            }
+        }
+        for (FieldUpdate companionUpdate : companionUpdates)
+            update.addFieldUpdate(companionUpdate);
+    }
+
+    /**
+     * Returns the companion of field, or null if field is no string or has none.
+     */
+    private static Field companionOf(DocumentType type, Field field)
+    {
+        if (field.getDataType() != DataType.STRING || field.getName().endsWith(TokenBoundaryCodec.COMPANION_SUFFIX))
+            return null;
+
+        Field companion = type.getField(field.getName() + TokenBoundaryCodec.COMPANION_SUFFIX);
+        return companion != null && companion.getDataType() == DataType.STRING ? companion : null;
+    }
+
+}
@@ -0,0 +1,115 @@
+// Copyright 2018 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.potelo.prelude.hitfield;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The snippets of a highlighted field, in offset order, along with the length
+ * of the field.
+ * <p>
+ * Note: degraded snippets were cut short to meet the query timeout, and are
+ * only the leading text of the field.
+ */
+public class FieldSnippets
+{
+
+    public FieldSnippets(int fieldLength, List<Snippet> snippets)
+    {
+        this(fieldLength, snippets, false);
+    }
+
+    public FieldSnippets(int fieldLength, List<Snippet> snippets, boolean degraded)
+    {
+        _fieldLength = fieldLength;
+        _snippets = snippets == null ? Collections.emptyList() : snippets;
+        _degraded = degraded;
+    }
+
+    public int getFieldLength()
+    {
+        return _fieldLength;
+    }
+
+    public List<Snippet> getSnippets()
+    {
+        return _snippets;
+    }
+
+    public boolean isDegraded()
+    {
+        return _degraded;
+    }
+
+    /**
+     * Returns a copy of these snippets holding only their own content, see {@link Snippet#compact()}.
+     */
+    public FieldSnippets compact()
+    {
+        List<Snippet> snippets = new ArrayList<>(_snippets.size());
+        for (Snippet snippet : _snippets)
+            snippets.add(snippet.compact());
+        return new FieldSnippets(_fieldLength, snippets, _degraded);
+    }
+
+    public StringBuilder writeJson(StringBuilder target)
+    {
+        target.append('{');
+        if ( ! _snippets.isEmpty())
+        {
+            target.append("\"fieldsnippets\":[");
+            for (int i = 0; i < _snippets.size(); ++i)
+            {
+                if (i > 0)
+                    target.append(',');
+                _snippets.get(i).writeJson(target);
+            }
+            target.append("],");
+        }
+        if (_degraded)
+            target.append("\"degraded\":true,");
+        return target.append("\"fieldlength\":").append(_fieldLength).append('}');
+    }
+
+    /**
+     * Writes the offset and length of each snippet, then of each highlighted
+     * range, as two flat arrays of integers, without any content.
+     */
+    public StringBuilder writeCompactJson(StringBuilder target)
+    {
+        target.append("{\"snippets\":[");
+        for (int i = 0; i < _snippets.size(); ++i)
+        {
+            if (i > 0)
+                target.append(',');
+            target.append(_snippets.get(i).getOffset()).append(',').append(_snippets.get(i).length());
+        }
+        target.append("],\"highlights\":[");
+        // grown snippets may share ranges with their neighbours, which are written once.
+        int end = -1;
+        for (Snippet snippet : _snippets)
+        {
+            for (int i = 0; i < snippet.highlightCount(); ++i)
+            {
+                if (snippet.highlightStart(i) < end)
+                    continue;
+                if (end >= 0)
+                    target.append(',');
+                target.append(snippet.highlightStart(i)).append(',').append(snippet.highlightEnd(i) - snippet.highlightStart(i));
+                end = snippet.highlightEnd(i);
+            }
+        }
+        target.append("],");
+        if (_degraded)
+            target.append("\"degraded\":true,");
+        return target.append("\"fieldlength\":").append(_fieldLength).append('}');
+    }
+
+    private final int _fieldLength;
+
+    private final List<Snippet> _snippets;
+
+    private final boolean _degraded;
+
+}
@@ -0,0 +1,97 @@
+// Copyright 2018 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.potelo.prelude.hitfield;
+
+import java.util.Arrays;
+
+/**
+ * The ordered highlighted ranges of a highlighted field, stored as primitive
+ * start and end offsets.
+ */
+public class HighlightedRanges
+{
+
+    public HighlightedRanges()
+    {
+        this(16);
+    }
+
+    public HighlightedRanges(int capacity)
+    {
+        _starts = new int[Math.max(1, capacity)];
+        _ends = new int[_starts.length];
+        _size = 0;
+    }
+
+    public void add(int start, int end)
+    {
+        if (_size == _starts.length)
+        {
+            int capacity = _size * 2;
+            _starts = Arrays.copyOf(_starts, capacity);
+            _ends = Arrays.copyOf(_ends, capacity);
+        }
+        _starts[_size] = start;
+        _ends[_size] = end;
+        _size++;
+    }
+
+    public void setEnd(int i, int end)
+    {
+        _ends[i] = end;
+    }
+
+    public void removeLast()
+    {
+        _size--;
+    }
+
+    public void clear()
+    {
+        _size = 0;
+    }
+
+    public int size()
+    {
+        return _size;
+    }
+
+    public int start(int i)
+    {
+        return _starts[i];
+    }
+
+    public int end(int i)
+    {
+        return _ends[i];
+    }
+
+    public HighlightedRange get(int i)
+    {
+        return new HighlightedRange(_starts[i], _ends[i] - _starts[i]);
+    }
+
+    /**
+     * Returns the backing array of range starts, in increasing order. Only its
+     * first size() positions are meaningful.
+     */
+    public int[] starts()
+    {
+        return _starts;
+    }
+
+    /**
+     * Returns the backing array of range ends (exclusive), in increasing order.
+     * Only its first size() positions are meaningful.
+     */
+    public int[] ends()
+    {
+        return _ends;
+    }
+
+    private int[] _starts;
+
+    private int[] _ends;
+
+    private int _size;
+
+}
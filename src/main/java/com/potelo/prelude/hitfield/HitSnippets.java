@@ -0,0 +1,84 @@
+// Copyright 2018 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.potelo.prelude.hitfield;
+
+import com.yahoo.data.JsonProducer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The value of the snippets field of a hit: the snippets of each of its
+ * snip fields.
+ * <p>
+ * Note: the JSON renderer writes this value straight into the result, without
+ * building any intermediate JSON tree. Compact snippets are written as offsets
+ * only, see {@link FieldSnippets#writeCompactJson(StringBuilder)}.
+ */
+public class HitSnippets implements JsonProducer
+{
+
+    public HitSnippets()
+    {
+        this(false);
+    }
+
+    public HitSnippets(boolean compact)
+    {
+        _compact = compact;
+    }
+
+    public boolean isCompact()
+    {
+        return _compact;
+    }
+
+    public void put(String fieldName, FieldSnippets fieldSnippets)
+    {
+        _fields.put(fieldName, fieldSnippets);
+    }
+
+    public FieldSnippets get(String fieldName)
+    {
+        return _fields.get(fieldName);
+    }
+
+    public Map<String, FieldSnippets> getFields()
+    {
+        return _fields;
+    }
+
+    public boolean isEmpty()
+    {
+        return _fields.isEmpty();
+    }
+
+    @Override
+    public StringBuilder writeJson(StringBuilder target)
+    {
+        target.append('{');
+        boolean first = true;
+        for (Map.Entry<String, FieldSnippets> field : _fields.entrySet())
+        {
+            if ( ! first)
+                target.append(',');
+            JsonStrings.appendQuoted(target, field.getKey(), 0, field.getKey().length()).append(':');
+            if (_compact)
+                field.getValue().writeCompactJson(target);
+            else
+                field.getValue().writeJson(target);
+            first = false;
+        }
+        return target.append('}');
+    }
+
+    @Override
+    public String toString()
+    {
+        return toJson();
+    }
+
+    private final Map<String, FieldSnippets> _fields = new LinkedHashMap<>();
+
+    private final boolean _compact;
+
+}
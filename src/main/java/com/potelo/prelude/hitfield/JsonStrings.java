@@ -0,0 +1,53 @@
+// Copyright 2018 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.potelo.prelude.hitfield;
+
+/**
+ * Writes JSON strings straight from a range of a CharSequence.
+ */
+final class JsonStrings
+{
+
+    private JsonStrings() {}
+
+    static StringBuilder appendQuoted(StringBuilder target, CharSequence text, int start, int end)
+    {
+        target.append('"');
+        appendEscaped(target, text, start, end);
+        return target.append('"');
+    }
+
+    static StringBuilder appendEscaped(StringBuilder target, CharSequence text, int start, int end)
+    {
+        for (int i = start; i < end; ++i)
+        {
+            char c = text.charAt(i);
+            switch (c)
+            {
+            case '"':
+                target.append("\\\"");
+                break;
+            case '\\':
+                target.append("\\\\");
+                break;
+            case '\n':
+                target.append("\\n");
+                break;
+            case '\r':
+                target.append("\\r");
+                break;
+            case '\t':
+                target.append("\\t");
+                break;
+            default:
+                if (c < 0x20)
+                    target.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                else
+                    target.append(c);
+            }
+        }
+        return target;
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+}
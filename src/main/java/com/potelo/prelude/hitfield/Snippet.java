@@ -1,24 +1,34 @@
 // Copyright 2018 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.potelo.prelude.hitfield;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Represents a range of String content in a highlighted field.
+ * <p>
+ * Note: a snippet is a view over the field text and over a run of consecutive
+ * highlighted ranges of it. Its content is written straight from the field text
+ * when it is rendered.
  */
 public class Snippet
 {
 
-    public Snippet(int offset, String content)
+    public Snippet(CharSequence source, int offset, int length, HighlightedRanges ranges, int firstRange, int lastRange)
+    {
+        this(source, 0, offset, length, ranges, firstRange, lastRange);
+    }
+
+    private Snippet(CharSequence source, int sourceOffset, int offset, int length,
+                    HighlightedRanges ranges, int firstRange, int lastRange)
     {
+        _source = source;
+        _sourceOffset = sourceOffset;
         _offset = offset;
-        _content = content;
-        _highlightedRanges = new ArrayList<>();
+        _length = length;
+        _ranges = ranges;
+        _firstRange = firstRange;
+        _lastRange = lastRange;
     }
 
     public int getOffset()
@@ -26,89 +36,136 @@ public class Snippet
         return _offset;
     }
 
+    public int length()
+    {
+        return _length;
+    }
+
     public String getContent()
     {
+        if (_content == null)
+            _content = _source.subSequence(_offset - _sourceOffset, _offset - _sourceOffset + _length).toString();
         return _content;
     }
 
     public List<HighlightedRange> getHighlightedRanges()
     {
-        return _highlightedRanges;
+        List<HighlightedRange> highlightedRanges = new ArrayList<>(_lastRange - _firstRange + 1);
+        for (int i = _firstRange; i <= _lastRange; ++i)
+            highlightedRanges.add(_ranges.get(i));
+        return highlightedRanges;
     }
 
-    public void pushContentFront(String content) throws Exception
+    public int highlightCount()
     {
-        if (content == null)
-            throw new Exception("Can't add null content");
-        else if (_content == null)
-            _content = content;
-        else {
-            _content = content + _content;
-            _offset -= content.length();
-            if (_offset < 0)
-                throw new Exception("Offset is negative");
-        }
+        return _lastRange - _firstRange + 1;
     }
 
-    public void pushContentBack(String content) throws Exception
+    /**
+     * Returns the offset in the field of the i-th highlighted range of this snippet.
+     */
+    public int highlightStart(int i)
     {
-        if (content == null)
-            throw new Exception("Can't add null content");
-        else if (_content == null)
-            _content = content;
-        else
-            _content = _content + content;
+        return _ranges.start(_firstRange + i);
     }
 
-    public void addHighlightedRange(HighlightedRange highlightedRange) throws Exception
+    /**
+     * Returns the end offset (exclusive) in the field of the i-th highlighted range of this snippet.
+     */
+    public int highlightEnd(int i)
     {
-        if (highlightedRange == null)
-            throw new Exception("Can't add null range");
-        else if (highlightedRange.getLength() == null)
-            throw new Exception("Can't add undefined range");
-        else if (_offset > highlightedRange.getOffset())
-            throw new Exception("Highlighted range is out of bounds");
-        else if (_content == null)
-            throw new Exception("There's no highlightable content");
-        else if (_offset + _content.length() < highlightedRange.getOffset() + highlightedRange.getLength())
-            throw new Exception("Highlighted range is out of bounds");
-        _highlightedRanges.add(highlightedRange);
+        return _ranges.end(_firstRange + i);
     }
 
-    public Integer length()
+    /**
+     * Returns a copy of this snippet holding only its own content and ranges,
+     * instead of a view over the whole field text.
+     */
+    public Snippet compact()
     {
-        return _content == null ? null : _content.length();
+        HighlightedRanges ranges = new HighlightedRanges(_lastRange - _firstRange + 1);
+        for (int i = _firstRange; i <= _lastRange; ++i)
+            ranges.add(_ranges.start(i), _ranges.end(i));
+        return new Snippet(getContent(), _offset, _offset, _length, ranges, 0, ranges.size() - 1);
     }
 
-    public JSONObject asJSONObject()
+    /**
+     * Grows this snippet to the left, up to offset.
+     */
+    public void extendLeft(int offset) throws Exception
     {
-        JSONObject json = new JSONObject();
-        try
-        {
-            json.put("offset", _offset);
-            // TODO separator
-            json.put("content", "..." + _content + "...");
-            json.put("length", length());
+        if (offset < _sourceOffset)
+            throw new Exception(offset < 0 ? "Offset is negative" : "Offset is out of bounds");
+        else if (offset > _offset)
+            throw new Exception("Can't shrink a snippet");
+        _length += _offset - offset;
+        _offset = offset;
+        _content = null;
+    }
 
-            JSONArray array = new JSONArray();
-            for (HighlightedRange hiRange : _highlightedRanges)
-                array.put(hiRange.asJSONObject());
-            json.put("highlightedranges", array);
+    /**
+     * Grows this snippet to the right, up to end (exclusive).
+     */
+    public void extendRight(int end) throws Exception
+    {
+        if (end > _sourceOffset + _source.length())
+            throw new Exception("End is out of bounds");
+        else if (end < _offset + _length)
+            throw new Exception("Can't shrink a snippet");
+        _length = end - _offset;
+        _content = null;
+    }
 
-            return json;
-        }
-        catch (JSONException e)
+    /**
+     * Adds the ranges from first to last, which must lie inside this snippet
+     * and next to the ranges it already has.
+     */
+    public void addHighlightedRanges(int first, int last) throws Exception
+    {
+        if (first > last)
+            return;
+        else if (first > _lastRange + 1 || last < _firstRange - 1)
+            throw new Exception("Highlighted ranges are not contiguous");
+        else if (_ranges.start(first) < _offset || _offset + _length < _ranges.end(last))
+            throw new Exception("Highlighted range is out of bounds");
+        _firstRange = Math.min(_firstRange, first);
+        _lastRange = Math.max(_lastRange, last);
+    }
+
+    public StringBuilder writeJson(StringBuilder target)
+    {
+        target.append("{\"offset\":").append(_offset)
+              .append(",\"length\":").append(_length)
+              .append(",\"highlightedranges\":[");
+        for (int i = _firstRange; i <= _lastRange; ++i)
         {
-            return null;
+            if (i > _firstRange)
+                target.append(',');
+            target.append("{\"offset\":").append(_ranges.start(i))
+                  .append(",\"length\":").append(_ranges.end(i) - _ranges.start(i)).append('}');
         }
+        // TODO separator
+        target.append("],\"content\":\"...");
+        JsonStrings.appendEscaped(target, _source, _offset - _sourceOffset, _offset - _sourceOffset + _length);
+        return target.append("...\"}");
     }
 
+    private final CharSequence _source;
+
+    private final int _sourceOffset; // the offset of the source in the field text.
+
     private int _offset;
 
+    private int _length;
+
     // TODO separator
 
-    private String _content;
+    private String _content; // materialized on demand.
+
+    private final HighlightedRanges _ranges;
+
+    private int _firstRange;
 
-    private List<HighlightedRange> _highlightedRanges;
+    private int _lastRange;
 
 }
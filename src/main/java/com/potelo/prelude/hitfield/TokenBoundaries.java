@@ -0,0 +1,147 @@
+// Copyright 2018 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.potelo.prelude.hitfield;
+
+import java.util.Arrays;
+
+/**
+ * The start and end offsets of the words of a text, found in a single pass.
+ * <p>
+ * A word is a run of letters, digits, combining marks and connector punctuation
+ * (e.g. '_'), so accented words such as "ação" are never split. Each scan
+ * overwrites the offsets of the previous one.
+ */
+public class TokenBoundaries
+{
+
+    public TokenBoundaries()
+    {
+        this(64);
+    }
+
+    public TokenBoundaries(int capacity)
+    {
+        _starts = new int[Math.max(1, capacity)];
+        _ends = new int[_starts.length];
+        _size = 0;
+    }
+
+    /**
+     * Replaces the boundaries held by the words of text.
+     */
+    public TokenBoundaries scan(CharSequence text)
+    {
+        clear();
+        return scan(text, 0, text.length());
+    }
+
+    /**
+     * Appends the boundaries of the words of text between from (inclusive) and
+     * to (exclusive). Words crossing these bounds are cut by them, and the range
+     * must start after the last boundary held.
+     */
+    public TokenBoundaries scan(CharSequence text, int from, int to)
+    {
+        int start = -1;
+        int i = from;
+        while (i < to)
+        {
+            char c = text.charAt(i);
+            int codePoint = c;
+            int width = 1;
+            if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+                width = 2;
+            }
+
+            if (isWordChar(codePoint))
+            {
+                if (start < 0)
+                    start = i;
+            }
+            else if (start >= 0)
+            {
+                add(start, i);
+                start = -1;
+            }
+            i += width;
+        }
+        if (start >= 0)
+            add(start, to);
+        return this;
+    }
+
+    public void add(int start, int end)
+    {
+        if (_size == _starts.length)
+        {
+            int capacity = _size * 2;
+            _starts = Arrays.copyOf(_starts, capacity);
+            _ends = Arrays.copyOf(_ends, capacity);
+        }
+        _starts[_size] = start;
+        _ends[_size] = end;
+        _size++;
+    }
+
+    public void clear()
+    {
+        _size = 0;
+    }
+
+    public int size()
+    {
+        return _size;
+    }
+
+    public int start(int i)
+    {
+        return _starts[i];
+    }
+
+    public int end(int i)
+    {
+        return _ends[i];
+    }
+
+    /**
+     * Returns the backing array of word starts, in increasing order. Only its
+     * first size() positions are meaningful.
+     */
+    public int[] starts()
+    {
+        return _starts;
+    }
+
+    /**
+     * Returns the backing array of word ends (exclusive), in increasing order.
+     * Only its first size() positions are meaningful.
+     */
+    public int[] ends()
+    {
+        return _ends;
+    }
+
+    public static boolean isWordChar(int codePoint)
+    {
+        if (Character.isLetterOrDigit(codePoint))
+            return true;
+        switch (Character.getType(codePoint))
+        {
+        case Character.NON_SPACING_MARK:
+        case Character.COMBINING_SPACING_MARK:
+        case Character.ENCLOSING_MARK:
+        case Character.CONNECTOR_PUNCTUATION:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private int[] _starts;
+
+    private int[] _ends;
+
+    private int _size;
+
+}
@@ -0,0 +1,152 @@
+// Copyright 2018 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.potelo.prelude.hitfield;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Encodes the word boundaries of a text into a compact string, so they can be
+ * computed once at feed time and stored along with the text.
+ * <p>
+ * Note: the encoding is the base64 of unsigned varints: a version, the length
+ * of the text, the number of words, then for each word the gap since the end
+ * of the previous one and its length. Decoding checks the text length, thus
+ * boundaries of another text are almost always rejected.
+ */
+public final class TokenBoundaryCodec
+{
+
+    private TokenBoundaryCodec()
+    {
+    }
+
+    /**
+     * Returns the boundaries of the words of text, encoded.
+     */
+    public static String encode(CharSequence text)
+    {
+        return encode(new TokenBoundaries().scan(text), text.length());
+    }
+
+    /**
+     * Returns tokens, the boundaries of the words of a text textLength long, encoded.
+     */
+    public static String encode(TokenBoundaries tokens, int textLength)
+    {
+        // a varint takes at most 5 bytes.
+        byte[] bytes = new byte[5 * (3 + 2 * tokens.size())];
+        int length = 0;
+        length = writeVarint(bytes, length, VERSION);
+        length = writeVarint(bytes, length, textLength);
+        length = writeVarint(bytes, length, tokens.size());
+        int previousEnd = 0;
+        for (int i = 0; i < tokens.size(); ++i)
+        {
+            length = writeVarint(bytes, length, tokens.start(i) - previousEnd);
+            length = writeVarint(bytes, length, tokens.end(i) - tokens.start(i));
+            previousEnd = tokens.end(i);
+        }
+        return Base64.getEncoder().withoutPadding().encodeToString(Arrays.copyOf(bytes, length));
+    }
+
+    /**
+     * Replaces the boundaries held by target by the encoded ones.
+     *
+     * @return false, leaving target empty, if encoded is malformed or isn't
+     *         the encoding of a text textLength long.
+     */
+    public static boolean decode(String encoded, int textLength, TokenBoundaries target)
+    {
+        target.clear();
+        byte[] bytes;
+        try
+        {
+            bytes = Base64.getDecoder().decode(encoded);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+
+        Reader reader = new Reader(bytes);
+        if (reader.next() != VERSION || reader.next() != textLength)
+            return false;
+        int count = reader.next();
+        if (count < 0)
+            return false;
+
+        int end = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            int gap = reader.next();
+            int length = reader.next();
+            if (gap < 0 || length <= 0 || end + gap + length > textLength || (gap == 0 && i > 0))
+            {
+                target.clear();
+                return false;
+            }
+            target.add(end + gap, end + gap + length);
+            end += gap + length;
+        }
+        if (reader.hasNext())
+        {
+            target.clear();
+            return false;
+        }
+        return true;
+    }
+
+    private static int writeVarint(byte[] bytes, int offset, int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Reads unsigned varints, returning -1 once they are exhausted or malformed.
+     */
+    private static final class Reader
+    {
+
+        Reader(byte[] bytes)
+        {
+            _bytes = bytes;
+        }
+
+        int next()
+        {
+            int value = 0;
+            for (int shift = 0; shift < 32 && _offset < _bytes.length; shift += 7)
+            {
+                byte b = _bytes[_offset++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            _offset = _bytes.length;
+            return -1;
+        }
+
+        boolean hasNext()
+        {
+            return _offset < _bytes.length;
+        }
+
+        private final byte[] _bytes;
+
+        private int _offset;
+
+    }
+
+    /** The suffix naming the field holding the encoded word boundaries of a field. */
+    public static final String COMPANION_SUFFIX = "_tokenboundaries";
+
+    // The version of the encoding, bumped whenever the word boundaries change
+    private static final int VERSION = 1;
+
+}
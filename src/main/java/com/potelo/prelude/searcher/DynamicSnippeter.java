@@ -0,0 +1,53 @@
+package com.potelo.prelude.searcher;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+
+import java.io.IOException;
+
+/**
+ * Highlights a single document in memory with Lucene's UnifiedHighlighter
+ * to produce a dynamic snippet (dynsnip).
+ * <p>
+ * Note: an instance must be used by one thread at a time. Borrow instances
+ * from a DynamicSnippeterPool. The analyzer is shared, not owned.
+ */
+class DynamicSnippeter
+{
+
+    DynamicSnippeter(Analyzer analyzer, String boldOpenTag, String boldCloseTag, String separatorTag, int maxLength)
+    {
+        // There's no index at all: the document is analyzed and highlighted
+        // in memory, straight from its token stream.
+        _highlighter = new UnifiedHighlighter(null, analyzer);
+        _highlighter.setFormatter(new DefaultPassageFormatter(boldOpenTag, boldCloseTag, separatorTag, false));
+        _highlighter.setMaxLength(maxLength);
+        _maxLength = maxLength;
+    }
+
+    /**
+     * Returns the best passage of documentToProcess for the plan, or null if
+     * there's nothing to match or the highlighter could not produce one.
+     */
+    String highlight(QueryMatchPlan plan, CharSequence documentToProcess) throws IOException
+    {
+        if (plan.isEmpty())
+            return null;
+
+        // without a searcher the highlighter doesn't load the field, thus it
+        // doesn't truncate it to its max length either.
+        String content = documentToProcess.length() > _maxLength ? documentToProcess.subSequence(0, _maxLength).toString()
+                                                                 : documentToProcess.toString();
+        Object snippet = _highlighter.highlightWithoutSearcher(FIELD, plan.luceneQuery(), content, 1);
+        return snippet == null ? null : snippet.toString();
+    }
+
+    // The name of the in-memory field highlighted by dynsnip
+    static final String FIELD = "toProcess";
+
+    private final UnifiedHighlighter _highlighter;
+
+    private final int _maxLength;
+
+}
@@ -0,0 +1,72 @@
+package com.potelo.prelude.searcher;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of DynamicSnippeters shared by the search threads.
+ * <p>
+ * Borrowing never blocks: when every pooled instance is in use a new one is
+ * created, and it is discarded on release if the pool is already full. Thus
+ * the pool retains at most maxSize instances and threads never wait on each other.
+ * <p>
+ * Note: discarded instances are just dropped, there's nothing to close: they
+ * own no index and share the analyzer of their language.
+ */
+class DynamicSnippeterPool
+{
+
+    DynamicSnippeterPool(int maxSize, Supplier<DynamicSnippeter> factory)
+    {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Pool size must be positive, got " + maxSize);
+        _idle = new ArrayBlockingQueue<>(maxSize);
+        _factory = factory;
+    }
+
+    DynamicSnippeter acquire()
+    {
+        DynamicSnippeter snippeter = _idle.poll();
+        if (snippeter == null)
+        {
+            snippeter = _factory.get();
+            _created.incrementAndGet();
+        }
+        return snippeter;
+    }
+
+    void release(DynamicSnippeter snippeter)
+    {
+        _idle.offer(snippeter); // dropped, and left to the garbage collector, when the pool is full.
+    }
+
+    /**
+     * Returns the number of DynamicSnippeters created since this pool was built.
+     */
+    long created()
+    {
+        return _created.get();
+    }
+
+    /**
+     * Returns the number of DynamicSnippeters waiting to be borrowed.
+     */
+    int idle()
+    {
+        return _idle.size();
+    }
+
+    void close()
+    {
+        _idle.clear();
+    }
+
+    private final BlockingQueue<DynamicSnippeter> _idle;
+
+    private final Supplier<DynamicSnippeter> _factory;
+
+    private final AtomicLong _created = new AtomicLong();
+
+}
@@ -0,0 +1,235 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.HighlightedRanges;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Removes the Juniper highlighting tags of a field content while gathering the
+ * highlighted ranges, in the offsets of the stripped text, in the same pass.
+ * <p>
+ * Note: the ranges of the last stripped content are kept until the next call,
+ * so an instance belongs to one thread.
+ * <p>
+ * Very large contents may be stripped in windows instead, copying only the text
+ * around the highlights, see {@link #stripWindows}.
+ */
+class HighlightStripper
+{
+
+    HighlightStripper()
+    {
+        _tags = new int[64];
+    }
+
+    /**
+     * Returns content without its tags. Content without any tag is returned
+     * as is, the others are copied once, straight into the returned text.
+     */
+    CharSequence strip(String content, boolean bolding)
+    {
+        _ranges = null;
+
+        int firstTag = firstTag(content);
+        if (firstTag < 0)
+            return content;
+
+        // the text outlives this call, in the snippets viewing it, thus it's never reused.
+        char[] chars = new char[content.length()];
+        content.getChars(0, firstTag, chars, 0);
+        int length = firstTag;
+
+        boolean insideHighlight = false;
+        boolean lastWasHighlight = false;
+        for (int i = firstTag; i < content.length(); ++i)
+        {
+            char key = content.charAt(i);
+            switch (key)
+            {
+            case UtilsSearcher.RAW_HIGHLIGHT_CHAR:
+                if (_ranges == null)
+                    _ranges = new HighlightedRanges();
+                if (bolding)
+                    addHiPosition(length, insideHighlight, lastWasHighlight);
+                insideHighlight = !insideHighlight;
+                lastWasHighlight = true;
+                break;
+            case UtilsSearcher.RAW_SEPARATOR_CHAR:
+                lastWasHighlight = false;
+                break;
+            default:
+                chars[length++] = key;
+                lastWasHighlight = false;
+                break;
+            }
+        }
+
+        // a highlight that is never closed can't be a range.
+        if (insideHighlight && bolding)
+            _ranges.removeLast();
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    /**
+     * Returns content without its tags, as {@link #strip} does, but only looking
+     * at its first limit chars and only copying the leading chars and the ones
+     * within reach of a highlight. The tags are located by searching for them,
+     * not by walking the content.
+     */
+    WindowedText stripWindows(String content, boolean bolding, int limit, int leading, int reach)
+    {
+        _ranges = null;
+        _tagCount = 0;
+        int end = Math.min(limit, content.length());
+
+        boolean insideHighlight = false;
+        int lastHighlight = -2;
+        int nextHighlight = indexOf(content, UtilsSearcher.RAW_HIGHLIGHT_CHAR, 0, end);
+        int nextSeparator = indexOf(content, UtilsSearcher.RAW_SEPARATOR_CHAR, 0, end);
+        while (nextHighlight >= 0 || nextSeparator >= 0)
+        {
+            if (nextHighlight < 0 || (nextSeparator >= 0 && nextSeparator < nextHighlight))
+            {
+                addTag(nextSeparator);
+                nextSeparator = indexOf(content, UtilsSearcher.RAW_SEPARATOR_CHAR, nextSeparator + 1, end);
+                continue;
+            }
+
+            if (_ranges == null)
+                _ranges = new HighlightedRanges();
+            if (bolding)
+                addHiPosition(nextHighlight - _tagCount, insideHighlight, lastHighlight == nextHighlight - 1);
+            insideHighlight = !insideHighlight;
+            lastHighlight = nextHighlight;
+            addTag(nextHighlight);
+            nextHighlight = indexOf(content, UtilsSearcher.RAW_HIGHLIGHT_CHAR, nextHighlight + 1, end);
+        }
+        if (insideHighlight && bolding)
+            _ranges.removeLast();
+
+        int length = end - _tagCount;
+        int rangeCount = _ranges == null ? 0 : _ranges.size();
+        int[] starts = new int[rangeCount + 1];
+        int[] ends = new int[rangeCount + 1];
+        int count = 0;
+        starts[count] = 0;
+        ends[count++] = Math.min(length, leading);
+        for (int i = 0; i < rangeCount; ++i)
+        {
+            int start = Math.max(0, _ranges.start(i) - reach);
+            int stop = Math.min(length, _ranges.end(i) + reach);
+            if (start <= ends[count - 1])
+                ends[count - 1] = Math.max(ends[count - 1], stop);
+            else
+            {
+                starts[count] = start;
+                ends[count++] = stop;
+            }
+        }
+
+        int size = 0;
+        for (int i = 0; i < count; ++i)
+            size += ends[i] - starts[i];
+        char[] chars = new char[size];
+        int copied = 0;
+        for (int i = 0; i < count; ++i)
+            copied = copy(content, starts[i], ends[i], chars, copied);
+        return new WindowedText(length, starts, ends, count, chars);
+    }
+
+    /**
+     * Copies the stripped chars from start to end (exclusive) of content into
+     * chars at offset, and returns the offset following them.
+     */
+    private int copy(String content, int start, int end, char[] chars, int offset)
+    {
+        // the tags before the stripped offset start are the ones stripped before it.
+        int tag = UtilsSearcher.upperBound(_tags, _tagCount, start);
+        int raw = start + tag;
+        for (int stripped = start; stripped < end; ++raw)
+        {
+            if (tag < _tagCount && _tags[tag] == stripped && isTag(content.charAt(raw)))
+            {
+                tag++;
+                continue;
+            }
+            chars[offset++] = content.charAt(raw);
+            stripped++;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the highlighted ranges of the last stripped content, or null if
+     * it had no highlighting tag at all. Ranges are only gathered when bolding.
+     */
+    HighlightedRanges ranges()
+    {
+        return _ranges;
+    }
+
+    private void addHiPosition(int rawPos, boolean insideHighlight, boolean lastWasHighlight)
+    {
+        if (insideHighlight)
+        {
+            _ranges.setEnd(_ranges.size() - 1, rawPos);
+        }
+        else if (lastWasHighlight)
+        {
+            // a _boldCloseTag right before a _boldOpenTag: JuniperSearcher
+            // merges these intervals, so we just reopen the last one and let
+            // its next tag close it.
+            _ranges.setEnd(_ranges.size() - 1, OPEN_RANGE_END);
+        }
+        else
+        {
+            _ranges.add(rawPos, OPEN_RANGE_END);
+        }
+    }
+
+    // records a tag by the stripped offset of the char following it.
+    private void addTag(int position)
+    {
+        if (_tagCount == _tags.length)
+            _tags = Arrays.copyOf(_tags, 2 * _tagCount);
+        _tags[_tagCount] = position - _tagCount;
+        _tagCount++;
+    }
+
+    private static boolean isTag(char c)
+    {
+        return c == UtilsSearcher.RAW_HIGHLIGHT_CHAR || c == UtilsSearcher.RAW_SEPARATOR_CHAR;
+    }
+
+    private static int indexOf(String content, char tag, int from, int end)
+    {
+        int index = content.indexOf(tag, from);
+        return index < end ? index : -1;
+    }
+
+    /**
+     * Returns the offset of the first tag of content, or -1 if it has none,
+     * reading content once.
+     */
+    private static int firstTag(String content)
+    {
+        for (int i = 0, length = content.length(); i < length; ++i)
+        {
+            if (isTag(content.charAt(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    // The end of a highlighted range whose closing tag wasn't found yet.
+    private static final int OPEN_RANGE_END = -1;
+
+    // the tags located by the last stripWindows, by the stripped offset following them.
+    private int[] _tags;
+
+    private int _tagCount;
+
+    private HighlightedRanges _ranges;
+
+}
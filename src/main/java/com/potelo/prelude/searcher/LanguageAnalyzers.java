@@ -0,0 +1,60 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.language.Language;
+import com.yahoo.search.Query;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.br.BrazilianAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.es.SpanishAnalyzer;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The analyzers of the languages snippets are made for, created once and
+ * shared by every thread: Lucene analyzers keep their token streams per thread.
+ * <p>
+ * Note: queries in other languages, or without one, are analyzed as Portuguese.
+ */
+final class LanguageAnalyzers
+{
+
+    LanguageAnalyzers()
+    {
+        _analyzers.put(Language.PORTUGUESE, new BrazilianAnalyzer());
+        _analyzers.put(Language.ENGLISH, new EnglishAnalyzer());
+        _analyzers.put(Language.SPANISH, new SpanishAnalyzer());
+    }
+
+    /**
+     * Returns the language of this query if it is supported, the fallback one otherwise.
+     */
+    Language languageOf(Query query)
+    {
+        Language language = query.getModel().getLanguage();
+        return language != null && _analyzers.containsKey(language) ? language : FALLBACK;
+    }
+
+    Analyzer get(Language language)
+    {
+        return _analyzers.get(language);
+    }
+
+    Set<Language> languages()
+    {
+        return _analyzers.keySet();
+    }
+
+    void close()
+    {
+        for (Analyzer analyzer : _analyzers.values())
+            analyzer.close();
+    }
+
+    // The language of the queries in unsupported languages
+    static final Language FALLBACK = Language.PORTUGUESE;
+
+    private final Map<Language, Analyzer> _analyzers = new EnumMap<>(Language.class);
+
+}
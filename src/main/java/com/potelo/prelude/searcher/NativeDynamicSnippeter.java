@@ -0,0 +1,135 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.HighlightedRanges;
+import com.potelo.prelude.hitfield.TokenBoundaries;
+
+/**
+ * Produces a dynamic snippet (dynsnip) from the highlights the backend already
+ * put in a field: the passage holding the most of them within the maximum
+ * length, cut at word boundaries and with its highlights bolded.
+ * <p>
+ * Note: unlike DynamicSnippeter, there's no analyzer, query nor Lucene
+ * involved, so instances are stateless and shared by every thread.
+ */
+final class NativeDynamicSnippeter
+{
+
+    NativeDynamicSnippeter(String boldOpenTag, String boldCloseTag, String separatorTag, int maxLength)
+    {
+        _boldOpenTag = boldOpenTag;
+        _boldCloseTag = boldCloseTag;
+        _separatorTag = separatorTag;
+        _maxLength = maxLength;
+    }
+
+    /**
+     * Returns the best passage of text, a field fieldLength long, around its
+     * highlighted ranges, or null if it has none.
+     */
+    String highlight(CharSequence text, HighlightedRanges ranges, int fieldLength)
+    {
+        if (ranges == null || ranges.size() == 0)
+            return null;
+
+        // the window of consecutive ranges fitting in the max length holding
+        // the most ranges, the first one on ties.
+        int[] starts = ranges.starts();
+        int[] ends = ranges.ends();
+        int count = ranges.size();
+        int best = 0, bestLast = 0;
+        for (int first = 0, last = 0; first < count; ++first)
+        {
+            last = Math.max(last, first);
+            while (last + 1 < count && ends[last + 1] - starts[first] <= _maxLength)
+                ++last;
+            if (last - first > bestLast - best)
+            {
+                best = first;
+                bestLast = last;
+            }
+        }
+
+        int start = starts[best];
+        int end = Math.min(ends[bestLast], start + _maxLength);
+
+        // the rest of the max length is shared by both sides, within the text.
+        int slack = _maxLength - (end - start);
+        int left = Math.max(0, start - slack / 2);
+        int right = Math.min(text.length(), left + _maxLength);
+        left = Math.max(0, Math.min(left, right - _maxLength));
+
+        left = snapLeft(text, left, start);
+        right = snapRight(text, right, end);
+
+        // the ranges of the neighbours reaching into the passage are bolded too.
+        while (best > 0 && ends[best - 1] > left)
+            --best;
+        while (bestLast + 1 < count && starts[bestLast + 1] < right)
+            ++bestLast;
+
+        StringBuilder snippet = new StringBuilder(right - left + 16 * (bestLast - best + 2));
+        if (left > 0)
+            snippet.append(_separatorTag);
+        int offset = left;
+        for (int i = best; i <= bestLast; ++i)
+        {
+            int rangeStart = Math.max(starts[i], offset);
+            int rangeEnd = Math.min(ends[i], right);
+            if (rangeStart >= rangeEnd)
+                continue;
+            snippet.append(text, offset, rangeStart).append(_boldOpenTag)
+                   .append(text, rangeStart, rangeEnd).append(_boldCloseTag);
+            offset = rangeEnd;
+        }
+        snippet.append(text, offset, right);
+        if (right < fieldLength)
+            snippet.append(_separatorTag);
+        return snippet.toString();
+    }
+
+    /**
+     * Moves left forward, up to limit, to the start of a word.
+     */
+    private static int snapLeft(CharSequence text, int left, int limit)
+    {
+        if (left > 0 && isWordChar(text, left - 1))
+        {
+            while (left < limit && isWordChar(text, left))
+                ++left;
+        }
+        while (left < limit && ! isWordChar(text, left))
+            ++left;
+        if (left < limit && Character.isLowSurrogate(text.charAt(left)))
+            ++left;
+        return left;
+    }
+
+    /**
+     * Moves right backward, down to limit, to the end of a word.
+     */
+    private static int snapRight(CharSequence text, int right, int limit)
+    {
+        if (right < text.length() && isWordChar(text, right))
+        {
+            while (right > limit && isWordChar(text, right - 1))
+                --right;
+        }
+        while (right > limit && Character.isWhitespace(text.charAt(right - 1)))
+            --right;
+        if (right > limit && Character.isHighSurrogate(text.charAt(right - 1)))
+            --right;
+        return right;
+    }
+
+    private static boolean isWordChar(CharSequence text, int i)
+    {
+        return TokenBoundaries.isWordChar(text.charAt(i));
+    }
+
+    private final String _boldOpenTag;
+    private final String _boldCloseTag;
+    private final String _separatorTag;
+
+    private final int _maxLength;
+
+}
@@ -0,0 +1,216 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.prelude.query.CompositeItem;
+import com.yahoo.prelude.query.Item;
+import com.yahoo.prelude.query.MarkerWordItem;
+import com.yahoo.prelude.query.NotItem;
+import com.yahoo.prelude.query.PhraseItem;
+import com.yahoo.prelude.query.PhraseSegmentItem;
+import com.yahoo.prelude.query.WordItem;
+import com.yahoo.processing.request.CompoundName;
+import com.yahoo.search.Query;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The words and phrases of a Vespa query, analyzed and compiled once per request
+ * into what the snippet generation needs to match them.
+ * <p>
+ * Note: instances are immutable, so a plan is shared by the search and fill
+ * phases of a request and by every hit in them.
+ */
+final class QueryMatchPlan
+{
+
+    private QueryMatchPlan(List<String> terms, List<List<String>> phrases, org.apache.lucene.search.Query luceneQuery)
+    {
+        _terms = Collections.unmodifiableList(terms);
+        _phrases = Collections.unmodifiableList(phrases);
+        _luceneQuery = luceneQuery;
+        _fingerprint = luceneQuery == null ? "" : luceneQuery.toString();
+    }
+
+    /**
+     * Returns the plan of this query, compiling and storing it in the query
+     * properties on first use.
+     */
+    static QueryMatchPlan of(Query query, Analyzer analyzer)
+    {
+        Object plan = query.properties().get(PROPERTY);
+        if (plan instanceof QueryMatchPlan)
+            return (QueryMatchPlan) plan;
+
+        QueryMatchPlan compiled = compile(query.getModel().getQueryTree().getRoot(), analyzer);
+        query.properties().set(PROPERTY, compiled);
+        return compiled;
+    }
+
+    static QueryMatchPlan compile(Item root, Analyzer analyzer)
+    {
+        Set<String> terms = new LinkedHashSet<>();
+        List<List<String>> phrases = new ArrayList<>();
+        List<org.apache.lucene.search.Query> clauses = new ArrayList<>();
+
+        collect(root, analyzer, terms, phrases, clauses);
+        for (String term : terms)
+            clauses.add(new TermQuery(new Term(DynamicSnippeter.FIELD, term)));
+        if (clauses.isEmpty())
+            return new QueryMatchPlan(new ArrayList<>(terms), phrases, null);
+
+        // huge queries are cut instead of failing: the snippets just miss their last words.
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (int i = 0; i < Math.min(clauses.size(), BooleanQuery.getMaxClauseCount()); ++i)
+            builder.add(clauses.get(i), BooleanClause.Occur.SHOULD);
+        return new QueryMatchPlan(new ArrayList<>(terms), phrases, builder.build());
+    }
+
+    /**
+     * Returns the distinct analyzed terms matched on their own.
+     */
+    List<String> terms()
+    {
+        return _terms;
+    }
+
+    /**
+     * Returns the analyzed terms of each phrase.
+     */
+    List<List<String>> phrases()
+    {
+        return _phrases;
+    }
+
+    /**
+     * Returns the Lucene query over DynamicSnippeter.FIELD matching
+     * these terms and phrases, or null if there's nothing to match.
+     */
+    org.apache.lucene.search.Query luceneQuery()
+    {
+        return _luceneQuery;
+    }
+
+    boolean isEmpty()
+    {
+        return _luceneQuery == null;
+    }
+
+    /**
+     * Returns a text equal for the plans matching the same terms and phrases.
+     */
+    String fingerprint()
+    {
+        return _fingerprint;
+    }
+
+    private static void collect(Item item, Analyzer analyzer, Set<String> terms, List<List<String>> phrases,
+                                List<org.apache.lucene.search.Query> clauses)
+    {
+        if (item == null)
+            return;
+
+        if (item instanceof NotItem)
+        {
+            // negative items never match a hit.
+            collect(((NotItem) item).getPositiveItem(), analyzer, terms, phrases, clauses);
+        }
+        else if (item instanceof PhraseItem || item instanceof PhraseSegmentItem)
+        {
+            StringBuilder text = new StringBuilder();
+            gatherWords(item, text);
+            addPhrase(text.toString(), analyzer, terms, phrases, clauses);
+        }
+        else if (item instanceof CompositeItem)
+        {
+            CompositeItem composite = (CompositeItem) item;
+            for (int i = 0; i < composite.getItemCount(); ++i)
+                collect(composite.getItem(i), analyzer, terms, phrases, clauses);
+        }
+        else if (item instanceof WordItem && ! (item instanceof MarkerWordItem))
+        {
+            // a single word may still be analyzed into several tokens.
+            addPhrase(((WordItem) item).getWord(), analyzer, terms, phrases, clauses);
+        }
+    }
+
+    private static void gatherWords(Item item, StringBuilder text)
+    {
+        if (item instanceof CompositeItem)
+        {
+            CompositeItem composite = (CompositeItem) item;
+            for (int i = 0; i < composite.getItemCount(); ++i)
+                gatherWords(composite.getItem(i), text);
+        }
+        else if (item instanceof WordItem)
+        {
+            if (text.length() > 0)
+                text.append(' ');
+            text.append(((WordItem) item).getWord());
+        }
+    }
+
+    private static void addPhrase(String text, Analyzer analyzer, Set<String> terms, List<List<String>> phrases,
+                                  List<org.apache.lucene.search.Query> clauses)
+    {
+        List<String> tokens = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(DynamicSnippeter.FIELD, text))
+        {
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute positionAttribute = stream.addAttribute(PositionIncrementAttribute.class);
+
+            int position = -1;
+            stream.reset();
+            while (stream.incrementToken())
+            {
+                // stop words leave gaps that phrases must respect.
+                position += positionAttribute.getPositionIncrement();
+                tokens.add(termAttribute.toString());
+                positions.add(position);
+            }
+            stream.end();
+        }
+        catch (IOException e)
+        {
+            // analyzing a String never does I/O.
+            throw new UncheckedIOException(e);
+        }
+
+        if (tokens.size() == 1)
+            terms.add(tokens.get(0));
+        else if (tokens.size() > 1)
+        {
+            PhraseQuery.Builder phrase = new PhraseQuery.Builder();
+            for (int i = 0; i < tokens.size(); ++i)
+                phrase.add(new Term(DynamicSnippeter.FIELD, tokens.get(i)), positions.get(i));
+            clauses.add(phrase.build());
+            phrases.add(Collections.unmodifiableList(tokens));
+        }
+    }
+
+    // The query property holding the plan of a request
+    private static final CompoundName PROPERTY = new CompoundName("snipper.matchplan");
+
+    private final List<String> _terms;
+
+    private final List<List<String>> _phrases;
+
+    private final org.apache.lucene.search.Query _luceneQuery;
+
+    private final String _fingerprint;
+
+}
@@ -0,0 +1,60 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.processing.request.CompoundName;
+import com.yahoo.search.Query;
+import com.yahoo.search.result.Hit;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The hits of a request already snipped, per summary class, so the search and
+ * fill phases never snip a hit twice for the same summary class.
+ * <p>
+ * Note: hits which aren't fillable are filled with every summary class, and
+ * their fields never change, so they are snipped once whatever the class.
+ */
+final class SnippedHits
+{
+
+    private SnippedHits()
+    {
+    }
+
+    /**
+     * Returns the snipped hits of this query, storing an empty registry in the
+     * query properties on first use.
+     */
+    static SnippedHits of(Query query)
+    {
+        Object snippedHits = query.properties().get(PROPERTY);
+        if (snippedHits instanceof SnippedHits)
+            return (SnippedHits) snippedHits;
+
+        SnippedHits created = new SnippedHits();
+        query.properties().set(PROPERTY, created);
+        return created;
+    }
+
+    /**
+     * Registers hit as snipped for summaryClass, and returns whether it wasn't
+     * already.
+     */
+    boolean add(Hit hit, String summaryClass)
+    {
+        String key = hit.getFilled() == null ? UNFILLABLE : summaryClass;
+        return _hits.computeIfAbsent(key, c -> Collections.newSetFromMap(new IdentityHashMap<>())).add(hit);
+    }
+
+    // The query property holding the snipped hits of a request
+    private static final CompoundName PROPERTY = new CompoundName("snipper.snippedhits");
+
+    // The key of the hits which aren't fillable, unlike any summary class
+    private static final String UNFILLABLE = "snipper.unfillable";
+
+    private final Map<String, Set<Hit>> _hits = new HashMap<>();
+
+}
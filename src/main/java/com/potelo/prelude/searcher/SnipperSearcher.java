@@ -1,45 +1,45 @@
 package com.potelo.prelude.searcher;
 
 import com.google.inject.Inject;
-import com.potelo.prelude.hitfield.HighlightedRange;
+import com.potelo.prelude.hitfield.FieldSnippets;
+import com.potelo.prelude.hitfield.HighlightedRanges;
+import com.potelo.prelude.hitfield.HitSnippets;
 import com.potelo.prelude.hitfield.Snippet;
+import com.potelo.prelude.hitfield.TokenBoundaries;
+import com.potelo.prelude.hitfield.TokenBoundaryCodec;
 import com.yahoo.component.ComponentId;
 import com.yahoo.component.chain.dependencies.After;
 import com.yahoo.component.chain.dependencies.Provides;
 import com.yahoo.container.QrSearchersConfig;
-import com.yahoo.prelude.Index;
+import com.yahoo.jdisc.Metric;
+import com.yahoo.language.Language;
 import com.yahoo.prelude.IndexFacts;
 import com.yahoo.prelude.fastsearch.FastHit;
 import com.yahoo.prelude.hitfield.HitField;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
 import com.yahoo.search.Searcher;
+import com.yahoo.search.result.ErrorHit;
+import com.yahoo.search.result.ErrorMessage;
 import com.yahoo.search.result.Hit;
+import com.yahoo.search.searchchain.AsyncExecution;
 import com.yahoo.search.searchchain.Execution;
+import com.yahoo.search.searchchain.FutureResult;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.br.BrazilianAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
-import org.apache.lucene.search.uhighlight.PassageFormatter;
-import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.MMapDirectory;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Generates a list of Snippets that contains highlighted terms
@@ -54,410 +54,668 @@ public class SnipperSearcher extends Searcher
 {
 
     @Inject
-    public SnipperSearcher(ComponentId id, QrSearchersConfig config)
+    public SnipperSearcher(ComponentId id, QrSearchersConfig config, SnipperConfig snipperConfig, Metric metric)
     {
         super(id);
 
-        // TODO move to configuration files.
-        _indexPath = "indexedFiles";
-        _lowerBoundSnippetLength = 280;
-        _upperBoundSnippetLength = 320;
+        _metrics = new SnippetMetrics(metric);
+
+        if (snipperConfig.lowerBoundSnippetLength() > snipperConfig.upperBoundSnippetLength())
+            throw new IllegalArgumentException("lowerBoundSnippetLength (" + snipperConfig.lowerBoundSnippetLength()
+                                               + ") must not exceed upperBoundSnippetLength ("
+                                               + snipperConfig.upperBoundSnippetLength() + ")");
+
+        _snipperConfig = snipperConfig;
+        _lowerBoundSnippetLength = snipperConfig.lowerBoundSnippetLength();
+        _upperBoundSnippetLength = snipperConfig.upperBoundSnippetLength();
 
         _boldOpenTag = config.tag().bold().open();
         _boldCloseTag = config.tag().bold().close();
         _separatorTag = config.tag().separator();
+
+        // per query language, the analyzer compiling the query terms is the same dynsnip highlights with.
+        _analyzers = new LanguageAnalyzers();
+        int poolSize = snipperConfig.dynamicSnippeterPoolSize() > 0 ? snipperConfig.dynamicSnippeterPoolSize()
+                                                                    : Runtime.getRuntime().availableProcessors();
+        _dynamicSnippeters = new EnumMap<>(Language.class);
+        for (Language language : _analyzers.languages())
+        {
+            Analyzer analyzer = _analyzers.get(language);
+            _dynamicSnippeters.put(language, new DynamicSnippeterPool(poolSize,
+                    () -> new DynamicSnippeter(analyzer, _boldOpenTag, _boldCloseTag, _separatorTag, _upperBoundSnippetLength)));
+        }
+
+        _nativeDynamicSnippeter = new NativeDynamicSnippeter(_boldOpenTag, _boldCloseTag, _separatorTag,
+                                                             _upperBoundSnippetLength);
+
+        int parallelism = snipperConfig.parallelism(); // threads generating snippets, 1 keeps it in the search thread.
+        _parallelThreshold = snipperConfig.parallelThreshold();
+
+        _windowedFieldLength = snipperConfig.windowedFieldLength();
+        _maxScanLength = snipperConfig.maxScanLength();
+        _fillBatchSize = snipperConfig.fillBatchSize();
+        _snippetExecutor = parallelism > 1 ? newSnippetExecutor(parallelism, 16 * parallelism) : null;
+
+        _cache = snipperConfig.cacheSize() > 0 ? new SnippetCache(snipperConfig.cacheSize(), snipperConfig.cacheStripes())
+                                               : null;
+    }
+
+    /**
+     * Returns a bounded executor: once its queue is full the submitting search
+     * thread processes the hit itself.
+     */
+    private static ExecutorService newSnippetExecutor(int parallelism, int queueSize)
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "snipper-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<>(queueSize), threadFactory,
+                                      new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public void deconstruct()
+    {
+        if (_snippetExecutor != null)
+            _snippetExecutor.shutdown();
+        for (DynamicSnippeterPool snippeters : _dynamicSnippeters.values())
+            snippeters.close();
+        _analyzers.close();
     }
 
     /**
      * Produce, for each configured field of a Hit, a List of Snippets
-     * based on the position of the Juniper highlighting tags..getIndex(fieldname).hasCommand("foo");
+     * based on the position of the Juniper highlighting tags.
+     * <p>
+     * Hits are usually filled, and so snipped, later on: only the hits already
+     * filled with the presentation summary class are snipped here.
      */
     @Override
     public Result search(Query query, Execution execution)
     {
+        try
+        {
+            SnippetSettings.of(query, _snipperConfig);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return new Result(query, ErrorMessage.createInvalidQueryParameter(e.getMessage()));
+        }
+
         Result result = execution.search(query); // get results from previous components in the chain.
 
-        String queryVespa = query.getModel().getQueryString();
-        boolean isBolding = query.getPresentation().getBolding();
-        Iterator<Hit> hitsToProcess = result.hits().deepIterator();
         IndexFacts indexFacts = execution.context().getIndexFacts();
-
         if (indexFacts != null)
-            processHits(queryVespa, isBolding, hitsToProcess, null, indexFacts.newSession(query));
+            processHits(query, result.hits().deepIterator(), query.getPresentation().getSummary(), indexFacts);
 
         return result;
     }
 
+    /**
+     * Fills the hits and snips the ones filled with summaryClass which weren't
+     * snipped for it yet. Only the hits about to be rendered are filled, thus
+     * hits left out of the presentation window are never snipped.
+     */
     @Override
     public void fill(Result result, String summaryClass, Execution execution)
     {
-        int worstCase = result.getHitCount();
-        List<Hit> hits = new ArrayList<>(worstCase);
-        for (Iterator<Hit> i = result.hits().deepIterator(); i.hasNext();)
+        IndexFacts indexFacts = execution.context().getIndexFacts();
+        if (indexFacts != null && _fillBatchSize > 0)
         {
-            Hit sniffHit = i.next();
-            if ( ! (sniffHit instanceof FastHit)) continue;
+            List<Hit> filledHits = new ArrayList<>();
+            List<Hit> unfilledHits = new ArrayList<>();
+            for (Iterator<Hit> hits = result.hits().deepIterator(); hits.hasNext(); )
+            {
+                Hit hit = hits.next();
+                if (hit.isFilled(summaryClass))
+                    filledHits.add(hit);
+                else
+                    unfilledHits.add(hit);
+            }
+            if (unfilledHits.size() > _fillBatchSize)
+            {
+                fillInBatches(result, summaryClass, execution, indexFacts, filledHits, unfilledHits);
+                return;
+            }
+        }
 
-            FastHit hit = (FastHit) sniffHit;
-            if (hit.isFilled(summaryClass)) continue;
+        execution.fill(result, summaryClass);
 
-            hits.add(hit);
+        if (indexFacts != null)
+            processHits(result.getQuery(), result.hits().deepIterator(), summaryClass, indexFacts);
+    }
+
+    /**
+     * Fills the unfilled hits in batches, snipping the hits of a batch while
+     * the next batch is filled, so the fill latency and the snipping time
+     * overlap instead of adding up.
+     * <p>
+     * Note: the batches are filled asynchronously through the rest of the
+     * chain, which may use the query meanwhile, so everything snipping needs
+     * from the query is resolved before the first fill, and the trace is only
+     * written once the last fill is over. The fill errors of every batch are
+     * added to the result, and when a fill times out the hits left are
+     * neither filled nor snipped. As the backend may still be filling the
+     * hits of the timed out batch, those are removed from the result rather
+     * than rendered while being written to.
+     */
+    private void fillInBatches(Result result, String summaryClass, Execution execution, IndexFacts indexFacts,
+                               List<Hit> filledHits, List<Hit> unfilledHits)
+    {
+        Query query = result.getQuery();
+        QuerySnipping snipping = new QuerySnipping(query);
+        snipping.resolve();
+
+        AsyncExecution asyncExecution = new AsyncExecution(execution);
+        List<Hit> hitsToProcess = filledHits; // the hits already filled are snipped during the first fill.
+        for (int from = 0; from < unfilledHits.size(); from += _fillBatchSize)
+        {
+            Result batch = new Result(query);
+            for (Hit hit : unfilledHits.subList(from, Math.min(from + _fillBatchSize, unfilledHits.size())))
+                batch.hits().add(hit);
+            FutureResult filling = asyncExecution.fill(batch, summaryClass);
+
+            processHits(snipping, hitsToProcess.iterator(), summaryClass, indexFacts);
+
+            // a timed out fill holds the timeout error only.
+            boolean isTimedOut = false;
+            Result filled = filling.get(Math.max(query.getTimeLeft(), 0), TimeUnit.MILLISECONDS);
+            if ( ! filling.isDone())
+            {
+                isTimedOut = true;
+                filling.cancel(true);
+            }
+            ErrorHit errors = filled.hits().getErrorHit();
+            if (errors != null)
+            {
+                for (ErrorMessage error : errors.errors())
+                    result.hits().addError(error);
+            }
+            if (isTimedOut)
+            {
+                removeHits(result, batch.hits().asList());
+                hitsToProcess = Collections.emptyList();
+                break;
+            }
+            hitsToProcess = batch.hits().asList();
         }
-        execution.fill(result, summaryClass);
+        processHits(snipping, hitsToProcess.iterator(), summaryClass, indexFacts);
+        snipping.writeTrace(query, summaryClass);
+    }
 
-        boolean isBolding = result.getQuery().getPresentation().getBolding();
-        Iterator<Hit> hitIterator = hits.iterator();
-        IndexFacts indexFacts = execution.context().getIndexFacts();
+    private static void removeHits(Result result, List<Hit> hitsToRemove)
+    {
+        Set<Hit> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(hitsToRemove);
+        for (Iterator<Hit> hits = result.hits().deepIterator(); hits.hasNext(); )
+        {
+            if (removed.contains(hits.next()))
+                hits.remove();
+        }
+    }
 
-        if (indexFacts != null)
-            processHits(null, isBolding, hitIterator, summaryClass, indexFacts.newSession(result.getQuery()));
+    private void processHits(Query query, Iterator<Hit> hitsToProcess, String summaryClass, IndexFacts indexFacts)
+    {
+        QuerySnipping snipping = new QuerySnipping(query);
+        processHits(snipping, hitsToProcess, summaryClass, indexFacts);
+        snipping.writeTrace(query, summaryClass);
     }
 
-    private void processHits(String queryVespa, boolean isBolding, Iterator<Hit> hitsToProcess,
-                             String summaryClass, IndexFacts.Session indexFacts)
+    private void processHits(QuerySnipping snipping, Iterator<Hit> hitsToProcess, String summaryClass,
+                             IndexFacts indexFacts)
     {
+        SnippedHits snippedHits = snipping.snippedHits;
+        List<FastHit> fastHits = new ArrayList<>();
+        List<String> documentTypes = new ArrayList<>();
+        List<SnippetFieldPlan> fieldPlans = new ArrayList<>();
         while (hitsToProcess.hasNext())
         {
             Hit hit = hitsToProcess.next();
-
-            // snippets must be a reserved word in the search definitions settings.
-            Object previousFieldValue = hit.getField("snippets");
-            assert(previousFieldValue == null);
-
             if ( ! (hit instanceof FastHit)) continue;
 
             FastHit fastHit = (FastHit) hit;
-            if (summaryClass != null &&  ! fastHit.isFilled(summaryClass)) continue;
+            if ( ! fastHit.isFilled(summaryClass)) continue;
 
             Object searchDefinitionField = fastHit.getField(_MAGIC_FIELD);
             if (searchDefinitionField == null) continue;
 
-            JSONObject snippets = new JSONObject();
-            for (Index index : indexFacts.getIndexes(searchDefinitionField.toString()))
-            {
-                // snip and dynsnip are incompatibles with Vespa's dyn summary.
-                // both snip and dynsnip needs a highlight configuration (bolding).
-                if (index.getDynamicSummary() || ! index.getHighlightSummary())
-                    continue;
+            String documentType = searchDefinitionField.toString();
+            SnippetFieldPlan fieldPlan = _fieldPlans.get(indexFacts, documentType);
+            if (fieldPlan.isEmpty()) continue;
+
+            // each hit is snipped once per summary class.
+            if ( ! snippedHits.add(fastHit, summaryClass)) continue;
 
-                HitField field;
-                if (index.hasCommand("snip") || index.hasCommand("dynsnip"))
+            fastHits.add(fastHit);
+            documentTypes.add(documentType);
+            fieldPlans.add(fieldPlan);
+        }
+        if (fastHits.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+
+        snipping.resolve();
+        Language language = snipping.language;
+        QueryMatchPlan plan = snipping.plan;
+        DynamicSnippeterPool snippeters = snipping.snippeters;
+        SnippetSettings settings = snipping.settings;
+        boolean isBolding = snipping.isBolding;
+        SnippetTrace trace = snipping.trace; // null when not traced.
+        SnippetBudget budget = snipping.budget;
+
+        // dispatching only pays off when there are enough hits.
+        boolean parallel = _snippetExecutor != null && fastHits.size() >= _parallelThreshold;
+        int degradedHits = 0;
+        if (parallel)
+            degradedHits = processHitsInParallel(plan, language, snippeters, settings, budget, isBolding,
+                                                 fastHits, documentTypes, fieldPlans, trace);
+        else
+        {
+            for (int i = 0; i < fastHits.size(); ++i)
+            {
+                // a failing hit is left as is, as it is when processed in parallel.
+                try
                 {
-                    field = fastHit.buildHitField(index.getName(), true);
-                    if (field == null)
-                        continue;
+                    ProcessedHit processedHit = processHit(plan, language, snippeters, settings, budget, isBolding,
+                                                           fastHits.get(i), documentTypes.get(i), fieldPlans.get(i), trace);
+                    processedHit.applyTo(fastHits.get(i), trace);
+                    if (processedHit.degraded)
+                        ++degradedHits;
                 }
-                else
-                    continue;
+                catch (RuntimeException e)
+                {
+                    _log.log(Level.WARNING, "Failed snipping hit " + fastHits.get(i).getId(), e);
+                    _metrics.error(documentTypes.get(i), null);
+                }
+            }
+        }
 
-                String documentToProcess = field.getContent();
-                documentToProcess = documentToProcess.replaceAll(Character.toString(UtilsSearcher.RAW_HIGHLIGHT_CHAR), "");
-                documentToProcess = documentToProcess.replaceAll(Character.toString(UtilsSearcher.RAW_SEPARATOR_CHAR), "");
+        long nanos = System.nanoTime() - start;
+        snipping.nanos += nanos;
+        _metrics.hitsProcessed(fastHits.size(), parallel, nanos);
+        if (degradedHits > 0)
+            _metrics.degradedHits(degradedHits);
+        if (_cache != null)
+            _metrics.cacheState(_cache);
+    }
 
-                if (index.hasCommand("snip"))
+    /**
+     * Returns the number of hits degraded to meet the query timeout.
+     */
+    private int processHitsInParallel(QueryMatchPlan plan, Language language, DynamicSnippeterPool snippeters,
+                                      SnippetSettings settings, SnippetBudget budget, boolean isBolding,
+                                      List<FastHit> fastHits, List<String> documentTypes,
+                                      List<SnippetFieldPlan> fieldPlans, SnippetTrace trace)
+    {
+        // each task owns its hit while processing it, and the fields are set
+        // back on the hits by this thread only. A task claims its hit first,
+        // so the hits of the tasks not started yet can be taken back.
+        AtomicIntegerArray claims = new AtomicIntegerArray(fastHits.size());
+        List<Future<ProcessedHit>> futures = new ArrayList<>(fastHits.size());
+        for (int i = 0; i < fastHits.size(); ++i)
+        {
+            int index = i;
+            FastHit fastHit = fastHits.get(i);
+            String documentType = documentTypes.get(i);
+            SnippetFieldPlan fieldPlan = fieldPlans.get(i);
+            futures.add(_snippetExecutor.submit(() -> ! claims.compareAndSet(index, 0, 1) ? null
+                    : processHit(plan, language, snippeters, settings, budget, isBolding, fastHit, documentType,
+                                 fieldPlan, trace)));
+        }
+        int degradedHits = 0;
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); ++i)
+        {
+            try
+            {
+                ProcessedHit processedHit = null;
+                while (processedHit == null)
                 {
-                    JSONArray fieldSnippets = null;
-
-                    List<HighlightedRange> hiRanges = UtilsSearcher.gatherHiPositions(field, isBolding);
-                    if (hiRanges != null)
+                    try
                     {
-                        try
+                        // once interrupted, the hits no worker took are snipped by this thread rather
+                        // than rendered with raw tags, and the workers only finish the hits they took.
+                        if (interrupted && claims.compareAndSet(i, 0, 1))
                         {
-                            fieldSnippets = generateSnippets(documentToProcess, hiRanges);
+                            futures.get(i).cancel(false);
+                            processedHit = processHit(plan, language, snippeters, settings, budget, isBolding,
+                                                      fastHits.get(i), documentTypes.get(i), fieldPlans.get(i), trace);
                         }
-                        catch (Exception e)
-                        {
-                            e.printStackTrace();
-                        }
-                    }
-
-                    if (fieldSnippets != null) {
-                        if (fieldSnippets.length() == 0)
-                            fieldSnippets = null;
                         else
-                            fieldSnippets = UtilsSearcher.<Integer>sortJsonArray(fieldSnippets, "offset");
+                            processedHit = futures.get(i).get();
                     }
-
-                    JSONObject fieldInfo = new JSONObject();
-                    try
-                    {
-                        fieldInfo.put("fieldlength", documentToProcess.length());
-                        fieldInfo.put("fieldsnippets", fieldSnippets);
-
-                        snippets.put(index.getName(), fieldInfo);
-                    }
-                    catch (JSONException e)
-                    {
-                        e.printStackTrace();
-                    }
-                }
-
-                if (index.hasCommand("dynsnip"))
-                {
-                    String dynsnippet = generateDynamicSnippet(queryVespa, documentToProcess);
-                    if (dynsnippet == null)
+                    catch (InterruptedException e)
                     {
-                        int rightOffset = documentToProcess.length();
-
-                        List<Integer> tokEndPositions = UtilsSearcher.gatherPatternPositions("(?<=\\w)\\b", documentToProcess);
-                        if (tokEndPositions == null)
-                            rightOffset = Math.min(rightOffset, _upperBoundSnippetLength);
-                        else
-                        {
-                            int i = UtilsSearcher.lowerBound(tokEndPositions, _upperBoundSnippetLength);
-                            if (i == tokEndPositions.size() || _upperBoundSnippetLength < tokEndPositions.get(i))
-                                i--;
-                            rightOffset = Math.min(rightOffset, tokEndPositions.get(i));
-                        }
-
-                        dynsnippet = documentToProcess.substring(0, rightOffset);
-                        if (dynsnippet.length() < documentToProcess.length())
-                            dynsnippet += _separatorTag;
+                        interrupted = true;
                     }
-                    hit.setField(index.getName(), dynsnippet);
                 }
+                processedHit.applyTo(fastHits.get(i), trace);
+                if (processedHit.degraded)
+                    ++degradedHits;
+            }
+            catch (ExecutionException | RuntimeException e)
+            {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                _log.log(Level.WARNING, "Failed snipping hit " + fastHits.get(i).getId(), cause);
+                _metrics.error(documentTypes.get(i), null);
             }
-            // snippets must be a reserved word in the search definitions settings.
-            if (snippets.length() > 0 )
-                hit.setField("snippets", snippets);
-        }
-    }
-
-    private String generateDynamicSnippet(String queryVespa, String documentToProcess)
-    {
-        try
-        {
-            // index dir.
-            Directory dir = MMapDirectory.open(Paths.get(_indexPath));
-
-            // analyzer with the default stop words.
-            Analyzer analyzer = new BrazilianAnalyzer();
-
-            // index writer Configuration.
-            IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-
-            // index writer.
-            IndexWriter iw = new IndexWriter(dir, iwc);
-
-            // the document that we need to process.
-            Document doc = new Document();
-            doc.add(new StringField("toProcess", documentToProcess, Field.Store.YES));
-
-            // adding the document.
-            iw.addDocument(doc);
-            iw.commit();
-
-            // index reader and lucene's searcher.
-            IndexReader ir = DirectoryReader.open(iw);
-            IndexSearcher searcher = new IndexSearcher(ir);
-
-            // setting the highlighter.
-            PassageFormatter formatter = new DefaultPassageFormatter(_boldOpenTag, _boldCloseTag, _separatorTag, false);
-            UnifiedHighlighter highlighter = new UnifiedHighlighter(searcher, analyzer);
-            highlighter.setFormatter(formatter);
-            highlighter.setMaxLength(_upperBoundSnippetLength);
-
-            QueryParser qp = new QueryParser("toProcess", analyzer);
-            org.apache.lucene.search.Query luceneQuery = qp.parse(String.format("toProcess: \"%s\"", queryVespa));
-
-            Map<String, String[]> snippetsMap = highlighter.highlightFields(new String[] {"toProcess"}, luceneQuery, new int[] {0}, new int[] {1});
-            String[] snippets = snippetsMap.get("toProcess");
-            if (snippets.length == 0)
-                return null;
-            String snippet = snippets[0];
-
-            // closing the reader.
-            ir.close();
-
-            // deleting all docs in this index and closing this writer.
-            iw.deleteAll();
-            iw.commit();
-            iw.close();
-
-            // closing the dir.
-            dir.close();
-
-            return snippet;
-        }
-        catch (IOException | ParseException e)
-        {
-            e.printStackTrace();
         }
-        return null;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return degradedHits;
     }
 
-    private JSONArray generateSnippets(String documentToProcess, List<HighlightedRange> hiRanges) throws Exception
+    private ProcessedHit processHit(QueryMatchPlan plan, Language language, DynamicSnippeterPool snippeters,
+                                    SnippetSettings settings, SnippetBudget budget, boolean isBolding,
+                                    FastHit hit, String documentType, SnippetFieldPlan fieldPlan, SnippetTrace trace)
     {
-        // here we assume a non null and non empty and ordered list of highlighted ranges!
-
-        List<Snippet> snippets = new ArrayList<>();
-
-        if (hiRanges.size() == 1)
+        ProcessedHit processedHit = new ProcessedHit(settings.isCompact(), trace == null ? null : new SnippetTrace.HitTrace(hit));
+        int processedFields = 0;
+        FieldTools fieldTools = _fieldTools.get();
+        HighlightStripper stripper = fieldTools.stripper;
+        TokenBoundaries tokens = fieldTools.tokens;
+        SnippetMerger merger = fieldTools.merger;
+        SnippetRanker ranker = fieldTools.ranker;
+        // the word boundaries stored at feed time, if any, are never rendered,
+        // those of the fields beyond the max fields per hit included.
+        List<SnippetFieldPlan.Field> fields = fieldPlan.fields();
+        Object[] companions = new Object[fields.size()];
+        for (int i = 0; i < fields.size(); ++i)
+            companions[i] = hit.removeField(fields.get(i).companionName);
+
+        for (int i = 0; i < fields.size(); ++i)
         {
-            HighlightedRange hiRange = hiRanges.get(0);
-            String content = documentToProcess.substring(hiRange.getOffset(), hiRange.getOffset() + hiRange.getLength());
+            if (settings.maxFieldsPerHit() > 0 && processedFields == settings.maxFieldsPerHit())
+                break;
 
-            Snippet snippet = new Snippet(hiRange.getOffset(), content);
+            SnippetFieldPlan.Field field = fields.get(i);
 
-            snippet.addHighlightedRange(hiRange);
+            HitField hitField = hit.buildHitField(field.name, true);
+            if (hitField == null)
+                continue;
+            ++processedFields;
 
-            snippets.add(snippet);
-        }
-        else
-        {
-            PriorityQueue<List<Integer>> queue = new PriorityQueue<>(hiRanges.size(), new UtilsSearcher.MinListComparator());
-            for (int i = 1; i < hiRanges.size(); ++i)
+            SnippetTrace.FieldTrace fieldTrace = processedHit.trace == null ? null : processedHit.trace.field(field.name);
+            Object encodedTokens = companions[i];
+            String content = hitField.getContent();
+            SnippetCache.Key cacheKey = null;
+            if (_cache != null && hit.getId() != null)
             {
-                HighlightedRange fstHiRange = hiRanges.get(i - 1), sndHiRange = hiRanges.get(i);
-                int dist = sndHiRange.getOffset() - (fstHiRange.getOffset() + fstHiRange.getLength());
-                queue.add(new ArrayList<>(Arrays.asList(dist, fstHiRange.getOffset(), i - 1, i)));
+                // the snippets of a field which is only snipped depend on its highlights, not on the query.
+                cacheKey = new SnippetCache.Key(hit.getId().toString(), field.name, content,
+                                              field.dynsnip ? plan : null, field.dynsnip ? language : null,
+                                              settings, isBolding);
+                SnippetCache.Entry cached = _cache.get(cacheKey);
+                _metrics.cacheLookup(documentType, field.name, cached != null);
+                if (cached != null)
+                {
+                    if (fieldTrace != null)
+                        fieldTrace.cached();
+                    processedHit.put(field.name, cached.snippets, cached.dynamicSnippet);
+                    continue;
+                }
             }
 
-            Map<HighlightedRange, Snippet> hiRange2Snippet = new HashMap<>();
-            while (!queue.isEmpty())
+            // cached snippets are served whatever the time left, the others get cheaper as it runs out.
+            SnippetBudget.Level level = budget.level();
+            if (level == SnippetBudget.Level.NONE)
             {
-                List<Integer> list = queue.remove();
-                HighlightedRange fstHiRange = hiRanges.get(list.get(2));
-                HighlightedRange sndHiRange = hiRanges.get(list.get(3));
+                // a dynsnip field is cut rather than left whole, which could be far longer than its dynsnip.
+                // a snip field gets no snippets at all, thus no field level degraded marker, only the hit's.
+                if (field.dynsnip)
+                    processedHit.put(field.name, null, cutField(stripper, content, isBolding));
+                degrade(processedHit, fieldTrace, level, documentType, field.name);
+                continue;
+            }
 
-                Snippet snippet1 = hiRange2Snippet.get(fstHiRange);
-                Snippet snippet2 = hiRange2Snippet.get(sndHiRange);
+            long start = System.nanoTime();
+            // very large fields are only copied and scanned around their highlights.
+            CharSequence documentToProcess;
+            int fieldLength;
+            if (isWindowed(content))
+            {
+                int scanLength = _maxScanLength > 0 ? _maxScanLength : content.length();
+                documentToProcess = stripper.stripWindows(content, isBolding, scanLength,
+                                                          _upperBoundSnippetLength + WINDOW_MARGIN,
+                                                          _upperBoundSnippetLength + WINDOW_MARGIN);
+                // the chars left unscanned are counted as if they had no tags.
+                fieldLength = documentToProcess.length() + Math.max(0, content.length() - scanLength);
+            }
+            else
+            {
+                documentToProcess = stripper.strip(content, isBolding);
+                fieldLength = documentToProcess.length();
+            }
+            _metrics.stripped(documentType, field.name, fieldLength, System.nanoTime() - start);
+            if (fieldTrace != null)
+                fieldTrace.lap(SnippetTrace.Phase.STRIP);
 
-                if (snippet1 != null && snippet2 != null)
-                {
-                    int offset = snippet1.getOffset() + snippet1.length();
-                    int length = ((snippet2.getOffset() + snippet2.length()) - offset);
+            boolean failed = false;
+            boolean degraded = false;
 
-                    // we should not merge if the new length pass the optimal value.
-                    if (snippet1.length() + length <= _upperBoundSnippetLength)
-                    {
-                        String content = documentToProcess.substring(offset, offset + length);
-                        snippet1.pushContentBack(content);
+            FieldSnippets snippets = null;
+            if (field.snip)
+            {
+                start = System.nanoTime();
+                List<Snippet> fieldSnippets = null;
 
-                        for (HighlightedRange hiRange : snippet2.getHighlightedRanges())
-                        {
-                            snippet1.addHighlightedRange(hiRange);
-                            hiRange2Snippet.put(hiRange, snippet1);
-                        }
-                        snippets.remove(snippet2);
-                    }
+                HighlightedRanges hiRanges = stripper.ranges();
+                // a field without highlights has no snippets, so degrading it never adds one.
+                boolean isHighlighted = hiRanges != null && hiRanges.size() > 0;
+                if (isHighlighted && level.compareTo(SnippetBudget.Level.LEADING_TEXT) >= 0)
+                {
+                    fieldSnippets = Collections.singletonList(leadingSnippet(documentToProcess, hiRanges, tokens));
+                    degraded = true;
                 }
-                else if (snippet1 != null)
+                else if (isHighlighted)
                 {
-                    int offset = snippet1.getOffset() + snippet1.length();
-                    int length = ((sndHiRange.getOffset() + sndHiRange.getLength()) - offset);
-
-                    // we should not merge if the new length pass the optimal value.
-                    if (snippet1.length() + length < _upperBoundSnippetLength)
+                    try
                     {
-                        String content = documentToProcess.substring(offset, offset + length);
-                        snippet1.pushContentBack(content);
-
-                        snippet1.addHighlightedRange(sndHiRange);
-                        hiRange2Snippet.put(sndHiRange, snippet1);
+                        if (fieldTrace != null)
+                            fieldTrace.mark();
+                        scanTokens(tokens, documentToProcess, encodedTokens);
+                        if (fieldTrace != null)
+                            fieldTrace.lap(SnippetTrace.Phase.SCAN);
+                        fieldSnippets = generateSnippets(documentToProcess, hiRanges, tokens, merger, ranker,
+                                                         settings.maxSnippetsPerField(), fieldTrace);
                     }
-                    else
+                    catch (Exception e)
                     {
-                        offset = sndHiRange.getOffset();
-                        length = sndHiRange.getLength();
-                        String content = documentToProcess.substring(offset, offset + length);
-
-                        snippet2 = new Snippet(offset, content);
-
-                        snippet2.addHighlightedRange(sndHiRange);
-                        hiRange2Snippet.put(sndHiRange, snippet2);
-
-                        snippets.add(snippet2);
+                        _log.log(Level.WARNING, "Failed snipping field " + field.name + " of hit " + hit.getId(), e);
+                        _metrics.error(documentType, field.name);
+                        failed = true;
                     }
                 }
-                else if (snippet2 != null)
-                {
-                    int offset = fstHiRange.getOffset();
-                    int length = snippet2.getOffset() - offset;
 
-                    // we should not merge if the new length pass the optimal value.
-                    if (snippet2.length() + length < _upperBoundSnippetLength)
-                    {
-                        String content = documentToProcess.substring(offset, offset + length);
-                        snippet2.pushContentFront(content);
+                snippets = new FieldSnippets(fieldLength, fieldSnippets, degraded);
+                _metrics.snipped(documentType, field.name, hiRanges == null ? 0 : hiRanges.size(),
+                                 snippets.getSnippets().size(), System.nanoTime() - start);
+            }
 
-                        snippet2.addHighlightedRange(fstHiRange);
-                        hiRange2Snippet.put(fstHiRange, snippet2);
-                    }
+            String dynsnippet = null;
+            if (field.dynsnip)
+            {
+                start = System.nanoTime();
+                if (fieldTrace != null)
+                    fieldTrace.mark();
+                boolean fallback = false;
+                if (level.compareTo(SnippetBudget.Level.LEADING_TEXT) < 0)
+                {
+                    // the native snippeter needs no Lucene, thus it's the one left when time runs short.
+                    if (settings.isNativeDynsnip() || level == SnippetBudget.Level.NO_HIGHLIGHTER)
+                        dynsnippet = _nativeDynamicSnippeter.highlight(documentToProcess, stripper.ranges(), fieldLength);
                     else
                     {
-                        length = fstHiRange.getLength();
-                        String content = documentToProcess.substring(offset, offset + length);
-
-                        snippet1 = new Snippet(offset, content);
-
-                        snippet1.addHighlightedRange(fstHiRange);
-                        hiRange2Snippet.put(fstHiRange, snippet1);
-
-                        snippets.add(snippet1);
+                        try
+                        {
+                            dynsnippet = generateDynamicSnippet(snippeters, plan, documentToProcess);
+                        }
+                        catch (IOException e)
+                        {
+                            // the leading text is rendered instead, but not cached.
+                            _log.log(Level.WARNING, "Failed highlighting field " + field.name + " of hit " + hit.getId(), e);
+                            _metrics.error(documentType, field.name);
+                            failed = true;
+                        }
                     }
+                    fallback = dynsnippet == null;
                 }
-                else
+                if (level.compareTo(SnippetBudget.Level.LEADING_TEXT) >= 0
+                    || (level == SnippetBudget.Level.NO_HIGHLIGHTER && ! settings.isNativeDynsnip()))
+                    degraded = true;
+                if (dynsnippet == null)
                 {
-                    int offset = fstHiRange.getOffset();
-                    int length = (sndHiRange.getOffset() + sndHiRange.getLength()) - offset;
-
-                    // we should not merge if the new length pass the optimal value.
-                    if (length < _upperBoundSnippetLength)
-                    {
-                        String content = documentToProcess.substring(offset, offset + length);
-                        Snippet snippet = new Snippet(offset, content);
-
-                        snippet.addHighlightedRange(fstHiRange);
-                        hiRange2Snippet.put(fstHiRange, snippet);
+                    dynsnippet = documentToProcess.subSequence(0, leadingTextEnd(documentToProcess, tokens)).toString();
+                    if (dynsnippet.length() < fieldLength)
+                        dynsnippet += _separatorTag;
+                }
+                if (fieldTrace != null)
+                    fieldTrace.lap(SnippetTrace.Phase.DYNSNIP);
+                _metrics.dynamicSnipped(documentType, field.name, fallback, System.nanoTime() - start);
+            }
 
-                        snippet.addHighlightedRange(sndHiRange);
-                        hiRange2Snippet.put(sndHiRange, snippet);
+            processedHit.put(field.name, snippets, dynsnippet);
+            if (degraded)
+                degrade(processedHit, fieldTrace, level, documentType, field.name);
+            // cached snippets must not keep the whole field text alive, nor be cut short.
+            else if (cacheKey != null && ! failed)
+                _cache.put(cacheKey, new SnippetCache.Entry(snippets == null ? null : snippets.compact(), dynsnippet));
+        }
+        if (processedHit.trace != null)
+            processedHit.trace.finish();
+        return processedHit;
+    }
 
-                        snippets.add(snippet);
-                    }
-                    else
-                    {
-                        offset = fstHiRange.getOffset();
-                        length = fstHiRange.getLength();
-                        String content = documentToProcess.substring(offset, offset + length);
+    private void degrade(ProcessedHit processedHit, SnippetTrace.FieldTrace fieldTrace, SnippetBudget.Level level,
+                         String documentType, String fieldName)
+    {
+        processedHit.degraded = true;
+        if (fieldTrace != null)
+            fieldTrace.degraded(level);
+        _metrics.degraded(documentType, fieldName);
+    }
 
-                        snippet1 = new Snippet(offset, content);
+    /**
+     * Returns the first upper bound snippet length chars of content, without
+     * their tags, followed by the separator if content is longer. Neither the
+     * rest of content nor its words are looked at.
+     */
+    private String cutField(HighlightStripper stripper, String content, boolean isBolding)
+    {
+        int end = Math.min(content.length(), _upperBoundSnippetLength);
+        if (end < content.length() && end > 0 && Character.isHighSurrogate(content.charAt(end - 1)))
+            --end;
+        String cut = stripper.strip(content.substring(0, end), isBolding).toString();
+        return end < content.length() ? cut + _separatorTag : cut;
+    }
 
-                        snippet1.addHighlightedRange(fstHiRange);
-                        hiRange2Snippet.put(fstHiRange, snippet1);
-                        snippets.add(snippet1);
+    /**
+     * Returns the leading text of documentToProcess as a snippet, along with the
+     * highlights within it.
+     */
+    private Snippet leadingSnippet(CharSequence documentToProcess, HighlightedRanges hiRanges, TokenBoundaries tokens)
+    {
+        int end = leadingTextEnd(documentToProcess, tokens);
+        int last = hiRanges == null ? -1 : UtilsSearcher.upperBound(hiRanges.ends(), hiRanges.size(), end) - 1;
+        return new Snippet(documentToProcess, 0, end, last < 0 ? new HighlightedRanges() : hiRanges, 0, last);
+    }
 
-                        offset = sndHiRange.getOffset();
-                        length = sndHiRange.getLength();
-                        content = documentToProcess.substring(offset, offset + length);
+    /**
+     * Returns where the leading text of documentToProcess ends: at the end of
+     * the last word within the upper bound, if any. Only the words of the
+     * leading text are scanned into tokens.
+     */
+    private int leadingTextEnd(CharSequence documentToProcess, TokenBoundaries tokens)
+    {
+        int rightOffset = documentToProcess.length();
+
+        // words cut by the scan end beyond the upper bound, so they are left out.
+        tokens.clear();
+        tokens.scan(documentToProcess, 0, Math.min(rightOffset, _upperBoundSnippetLength + WINDOW_MARGIN));
+        int i = UtilsSearcher.upperBound(tokens.ends(), tokens.size(), _upperBoundSnippetLength) - 1;
+        if (i < 0)
+            return Math.min(rightOffset, _upperBoundSnippetLength);
+        return Math.min(rightOffset, tokens.end(i));
+    }
 
-                        snippet2 = new Snippet(offset, content);
+    private boolean isWindowed(String content)
+    {
+        return (_windowedFieldLength > 0 && content.length() >= _windowedFieldLength)
+               || (_maxScanLength > 0 && content.length() > _maxScanLength);
+    }
 
-                        snippet2.addHighlightedRange(sndHiRange);
-                        hiRange2Snippet.put(sndHiRange, snippet2);
-                        snippets.add(snippet2);
-                    }
-                }
-            }
+    /**
+     * Decodes the words of text from encodedTokens, or scans them, only within
+     * its windows if it is windowed, when they aren't the boundaries of text.
+     */
+    private static void scanTokens(TokenBoundaries tokens, CharSequence text, Object encodedTokens)
+    {
+        if (encodedTokens != null && TokenBoundaryCodec.decode(encodedTokens.toString(), text.length(), tokens))
+            return;
+        if ( ! (text instanceof WindowedText))
+        {
+            tokens.scan(text);
+            return;
         }
+        WindowedText windowed = (WindowedText) text;
+        tokens.clear();
+        for (int i = 0; i < windowed.windowCount(); ++i)
+            tokens.scan(windowed, windowed.windowStart(i), windowed.windowEnd(i));
+    }
 
-        List<Integer> tokStartPositions = UtilsSearcher.gatherPatternPositions("\\b(?=\\w)", documentToProcess);
-        List<Integer> tokEndPositions = UtilsSearcher.gatherPatternPositions("(?<=\\w)\\b", documentToProcess);
-        if (tokStartPositions == null || tokEndPositions == null)
-            return null;
-        List<Integer> hiRangeStartPositions = new ArrayList<>();
-        List<Integer> hiRangeEndPositions = new ArrayList<>();
-        for (HighlightedRange hiRange : hiRanges)
+    private String generateDynamicSnippet(DynamicSnippeterPool snippeters, QueryMatchPlan plan, CharSequence documentToProcess)
+            throws IOException
+    {
+        DynamicSnippeter snippeter = snippeters.acquire();
+        try
         {
-            hiRangeStartPositions.add(hiRange.getOffset());
-            hiRangeEndPositions.add(hiRange.getOffset() + hiRange.getLength());
+            return snippeter.highlight(plan, documentToProcess);
         }
+        finally
+        {
+            snippeters.release(snippeter);
+        }
+    }
+
+    /**
+     * Returns the best maxSnippets (0 is unlimited) snippets of documentToProcess,
+     * in offset order, or null if it has no words at all.
+     */
+    private List<Snippet> generateSnippets(CharSequence documentToProcess, HighlightedRanges hiRanges, TokenBoundaries tokens,
+                                           SnippetMerger merger, SnippetRanker ranker, int maxSnippets,
+                                           SnippetTrace.FieldTrace trace) throws Exception
+    {
+        // here we assume a non null and non empty and ordered list of highlighted ranges!
 
-        JSONArray jsonArray = new JSONArray();
-        for (Snippet snippet : snippets)
+        if (tokens.size() == 0)
+            return null;
+        int[] tokStartPositions = tokens.starts();
+        int[] tokEndPositions = tokens.ends();
+        int tokCount = tokens.size();
+
+        int[] hiRangeStartPositions = hiRanges.starts();
+        int[] hiRangeEndPositions = hiRanges.ends();
+        int hiCount = hiRanges.size();
+
+        int snippetCount = merger.merge(hiRangeStartPositions, hiRangeEndPositions, hiCount, _upperBoundSnippetLength);
+        // only the selected snippets are expanded.
+        snippetCount = ranker.select(merger, snippetCount, maxSnippets > 0 ? maxSnippets : Integer.MAX_VALUE,
+                                     documentToProcess, hiRangeStartPositions, hiRangeEndPositions);
+        if (trace != null)
+            trace.lap(SnippetTrace.Phase.MERGE);
+
+        List<Snippet> snippets = new ArrayList<>(snippetCount);
+        for (int k = 0; k < snippetCount; ++k)
         {
+            int first = ranker.first(k), last = ranker.last(k);
+            Snippet snippet = new Snippet(documentToProcess, hiRangeStartPositions[first],
+                                          hiRangeEndPositions[last] - hiRangeStartPositions[first], hiRanges, first, last);
+
             if (snippet.length() < _lowerBoundSnippetLength)
             {
                 int originalLeftOffset = snippet.getOffset();
@@ -466,73 +724,208 @@ public class SnipperSearcher extends Searcher
                 int snippetLack = _upperBoundSnippetLength - snippet.length();
 
                 // trying to grow left half snippetLack.
-                int i = UtilsSearcher.lowerBound(tokStartPositions, snippet.getOffset() - snippetLack / 2);
-                int offset = Math.min(tokStartPositions.get(i), snippet.getOffset());
+                int i = UtilsSearcher.lowerBound(tokStartPositions, tokCount, snippet.getOffset() - snippetLack / 2);
+                int offset = i < tokCount ? Math.min(tokStartPositions[i], snippet.getOffset()) : snippet.getOffset();
 
-                String content = documentToProcess.substring(offset, snippet.getOffset());
-                snippet.pushContentFront(content);
-                snippetLack -= content.length();
+                snippetLack -= snippet.getOffset() - offset;
+                snippet.extendLeft(offset);
 
-                // trying to grow right the rest of snippetLack.
+                // trying to grow right the rest of snippetLack, up to the last token end that fits.
                 offset = snippet.getOffset() + snippet.length();
-                i = UtilsSearcher.lowerBound(tokEndPositions, offset + snippetLack);
-                if (i == tokEndPositions.size() || offset + snippetLack < tokEndPositions.get(i))
-                    i--;  // the lower bound may be greater than we expect.
+                i = UtilsSearcher.upperBound(tokEndPositions, tokCount, offset + snippetLack) - 1;
+                int end = i < 0 ? offset : Math.max(offset, tokEndPositions[i]);
 
-                content = documentToProcess.substring(offset, Math.max(offset, tokEndPositions.get(i)));
-                snippet.pushContentBack(content);
-                snippetLack -= content.length();
+                snippetLack -= end - offset;
+                snippet.extendRight(end);
 
                 // trying to grow left again the rest of snippetLack.
-                i = UtilsSearcher.lowerBound(tokStartPositions, snippet.getOffset() - snippetLack);
-                offset = Math.min(tokStartPositions.get(i), snippet.getOffset());
+                i = UtilsSearcher.lowerBound(tokStartPositions, tokCount, snippet.getOffset() - snippetLack);
+                offset = i < tokCount ? Math.min(tokStartPositions[i], snippet.getOffset()) : snippet.getOffset();
 
-                content = documentToProcess.substring(offset, snippet.getOffset());
-                snippet.pushContentFront(content);
+                snippet.extendLeft(offset);
 
                 // searching for hiRanges in the new snippet left range.
                 if (snippet.getOffset() < originalLeftOffset)
                 {
-                    i = UtilsSearcher.lowerBound(hiRangeStartPositions, snippet.getOffset());
-                    if (hiRangeStartPositions.get(i) < originalLeftOffset)
+                    i = UtilsSearcher.lowerBound(hiRangeStartPositions, hiCount, snippet.getOffset());
+                    if (hiRangeStartPositions[i] < originalLeftOffset)
                     {
-                        int j = UtilsSearcher.lowerBound(hiRangeEndPositions, originalLeftOffset);
-                        if (originalLeftOffset < hiRangeEndPositions.get(j))
-                            j--;
-                        for (; i <= j; ++i)
-                            snippet.addHighlightedRange(hiRanges.get(i));
+                        int j = UtilsSearcher.upperBound(hiRangeEndPositions, hiCount, originalLeftOffset) - 1;
+                        snippet.addHighlightedRanges(i, j);
                     }
                 }
                 if (originalRightOffset < snippet.getOffset() + snippet.length())
                 {
-                    i = UtilsSearcher.lowerBound(hiRangeStartPositions, originalRightOffset);
-                    if (i < hiRangeStartPositions.size())
+                    i = UtilsSearcher.lowerBound(hiRangeStartPositions, hiCount, originalRightOffset);
+                    if (i < hiCount)
                     {
-                        int j = UtilsSearcher.lowerBound(hiRangeEndPositions, snippet.getOffset() + snippet.length());
-                        if (j == hiRangeEndPositions.size()
-                                || snippet.getOffset() + snippet.length() < hiRangeEndPositions.get(j))
-                            j--;
-                        for (; i <= j; ++i)
-                            snippet.addHighlightedRange(hiRanges.get(i));
+                        int j = UtilsSearcher.upperBound(hiRangeEndPositions, hiCount, snippet.getOffset() + snippet.length()) - 1;
+                        snippet.addHighlightedRanges(i, j);
                     }
                 }
             }
-            jsonArray.put(snippet.asJSONObject());
+            snippets.add(snippet);
+        }
+        if (trace != null)
+            trace.lap(SnippetTrace.Phase.EXPAND);
+        return snippets;
+    }
+
+    /**
+     * The fields a hit gets from its snip and dynsnip fields.
+     */
+    private static class ProcessedHit
+    {
+
+        ProcessedHit(boolean compact, SnippetTrace.HitTrace trace)
+        {
+            snippets = new HitSnippets(compact);
+            this.trace = trace;
+        }
+
+        void put(String field, FieldSnippets fieldSnippets, String dynamicSnippet)
+        {
+            if (fieldSnippets != null)
+                snippets.put(field, fieldSnippets);
+            if (dynamicSnippet != null)
+                dynamicSnippets.put(field, dynamicSnippet);
+        }
+
+        void applyTo(Hit hit, SnippetTrace requestTrace)
+        {
+            if (requestTrace != null)
+                requestTrace.add(trace);
+
+            for (Map.Entry<String, String> dynamicSnippet : dynamicSnippets.entrySet())
+                hit.setField(dynamicSnippet.getKey(), dynamicSnippet.getValue());
+
+            // snippets must be a reserved word in the search definitions settings.
+            if ( ! snippets.isEmpty())
+                hit.setField("snippets", snippets);
+            if (degraded)
+                hit.setField(DEGRADED_FIELD, true);
+        }
+
+        final HitSnippets snippets;
+
+        final Map<String, String> dynamicSnippets = new LinkedHashMap<>();
+
+        final SnippetTrace.HitTrace trace; // null when the request isn't traced.
+
+        boolean degraded; // whether any field was cut short to meet the query timeout.
+
+    }
+
+    /**
+     * What the hits of a query are snipped with. It's resolved from the query
+     * only when there are hits to snip, unless resolved beforehand so that the
+     * hits can be snipped while the query is in use elsewhere.
+     */
+    private class QuerySnipping
+    {
+
+        QuerySnipping(Query query)
+        {
+            _query = query;
+            snippedHits = SnippedHits.of(query);
         }
-        return jsonArray;
+
+        void resolve()
+        {
+            if (_query == null)
+                return;
+
+            // the plan and settings resolved in search() for this query, when it ran.
+            language = _analyzers.languageOf(_query);
+            plan = QueryMatchPlan.of(_query, _analyzers.get(language));
+            snippeters = _dynamicSnippeters.get(language);
+            settings = SnippetSettings.of(_query, _snipperConfig);
+            isBolding = _query.getPresentation().getBolding();
+            trace = SnippetTrace.of(_query);
+            budget = new SnippetBudget(_query, _snipperConfig);
+            _query = null;
+        }
+
+        void writeTrace(Query query, String summaryClass)
+        {
+            if (trace != null)
+                trace.writeTo(query, summaryClass, nanos);
+        }
+
+        final SnippedHits snippedHits;
+
+        Language language;
+        QueryMatchPlan plan;
+        DynamicSnippeterPool snippeters;
+        SnippetSettings settings;
+        boolean isBolding;
+        SnippetTrace trace; // null when not traced.
+        SnippetBudget budget;
+
+        long nanos; // the time spent snipping.
+
+        private Query _query; // null once resolved.
+
+    }
+
+    /**
+     * What a thread snips fields with. Each search thread and snippet worker
+     * keeps its own, so their arrays are sized once rather than for each hit.
+     */
+    private static class FieldTools
+    {
+
+        final HighlightStripper stripper = new HighlightStripper();
+
+        final TokenBoundaries tokens = new TokenBoundaries();
+
+        final SnippetMerger merger = new SnippetMerger();
+
+        final SnippetRanker ranker = new SnippetRanker();
+
     }
 
     static final String HIGHLIGHT_SNIPPETING = "HighlightSnippeting";
 
+    // The field marking the hits whose snippets were cut short to meet the query timeout
+    static final String DEGRADED_FIELD = "snippetsdegraded";
+
+    // How far beyond a snippet length windows reach, so no word at their edges is snipped
+    private static final int WINDOW_MARGIN = 64;
+
+    private static final Logger _log = Logger.getLogger(SnipperSearcher.class.getName());
+
+    private static final ThreadLocal<FieldTools> _fieldTools = ThreadLocal.withInitial(FieldTools::new);
+
     // The name of the field containing document type
     private static final String _MAGIC_FIELD = Hit.SDDOCNAME_FIELD;
 
-    // TODO move to configuration files.
-    private String _indexPath;
+    private SnipperConfig _snipperConfig;
+
     private int _lowerBoundSnippetLength; // lower optimal snippet length.
     private int _upperBoundSnippetLength; // upper optimal snippet length.
 
     private String _boldOpenTag;
     private String _boldCloseTag;
     private String _separatorTag;
+
+    private LanguageAnalyzers _analyzers;
+
+    private Map<Language, DynamicSnippeterPool> _dynamicSnippeters;
+
+    private NativeDynamicSnippeter _nativeDynamicSnippeter;
+
+    private ExecutorService _snippetExecutor; // null when snippets are generated in the search thread.
+    private int _parallelThreshold; // minimum number of hits to go parallel.
+
+    private int _windowedFieldLength; // fields at least this long are snipped in windows, 0 never.
+    private int _maxScanLength; // only the first chars of a field are snipped, 0 all.
+
+    private int _fillBatchSize; // unfilled hits filled per batch, 0 all at once.
+
+    private SnippetCache _cache; // null when snippets aren't cached across requests.
+
+    private final SnippetFieldPlan.Cache _fieldPlans = new SnippetFieldPlan.Cache();
+
+    private SnippetMetrics _metrics;
 }
@@ -0,0 +1,64 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.search.Query;
+
+import java.util.Locale;
+
+/**
+ * How much snippeting a request still affords, by the time left before its
+ * query times out.
+ * <p>
+ * Note: the level is read again before each field, so a request degrades as it
+ * runs out of time, and a threshold of 0 never degrades to its level.
+ */
+final class SnippetBudget
+{
+
+    SnippetBudget(Query query, SnipperConfig config)
+    {
+        _query = query;
+        _noHighlighterTimeLeft = config.noHighlighterTimeLeft();
+        _leadingTextTimeLeft = config.leadingTextTimeLeft();
+        _noSnippetsTimeLeft = config.noSnippetsTimeLeft();
+    }
+
+    /** The snippeting strategies, from the most expensive to the cheapest. */
+    enum Level
+    {
+        /** Snippets and dynamic snippets as configured. */
+        FULL,
+        /** Dynamic snippets are picked from the backend highlights, without Lucene. */
+        NO_HIGHLIGHTER,
+        /** Snippets and dynamic snippets are the leading text only. */
+        LEADING_TEXT,
+        /** No snippets at all. */
+        NONE;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the level the next field can be snipped at.
+     */
+    Level level()
+    {
+        if (_noHighlighterTimeLeft <= 0 && _leadingTextTimeLeft <= 0 && _noSnippetsTimeLeft <= 0)
+            return Level.FULL;
+
+        long timeLeft = _query.getTimeLeft();
+        if (timeLeft < _noSnippetsTimeLeft)
+            return Level.NONE;
+        if (timeLeft < _leadingTextTimeLeft)
+            return Level.LEADING_TEXT;
+        if (timeLeft < _noHighlighterTimeLeft)
+            return Level.NO_HIGHLIGHTER;
+        return Level.FULL;
+    }
+
+    private final Query _query;
+
+    private final long _noHighlighterTimeLeft; // ms
+    private final long _leadingTextTimeLeft; // ms
+    private final long _noSnippetsTimeLeft; // ms
+
+}
@@ -0,0 +1,205 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.FieldSnippets;
+import com.yahoo.language.Language;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the snippets of hit fields, shared by the requests of a
+ * searcher, evicting the least recently used fields first.
+ * <p>
+ * Note: the entries are split in independently locked stripes, each holding an
+ * even share of the maximum size, so concurrent requests rarely contend.
+ */
+class SnippetCache
+{
+
+    SnippetCache(int maxSize, int stripes)
+    {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Cache size must be positive, got " + maxSize);
+
+        int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(stripes, maxSize)));
+        int stripeSize = (maxSize + stripeCount - 1) / stripeCount;
+        _stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; ++i)
+            _stripes[i] = new Stripe(stripeSize);
+    }
+
+    /**
+     * Returns the cached snippets of this key, or null if there are none.
+     */
+    Entry get(Key key)
+    {
+        Stripe stripe = stripeOf(key);
+        Entry entry;
+        synchronized (stripe)
+        {
+            entry = stripe.get(key);
+        }
+        if (entry == null)
+            _misses.increment();
+        else
+            _hits.increment();
+        return entry;
+    }
+
+    void put(Key key, Entry entry)
+    {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe)
+        {
+            stripe.put(key, entry);
+        }
+    }
+
+    long hits()
+    {
+        return _hits.sum();
+    }
+
+    long misses()
+    {
+        return _misses.sum();
+    }
+
+    long evictions()
+    {
+        return _evictions.sum();
+    }
+
+    int size()
+    {
+        int size = 0;
+        for (Stripe stripe : _stripes)
+        {
+            synchronized (stripe)
+            {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeOf(Key key)
+    {
+        int hash = key.hashCode();
+        return _stripes[(hash ^ (hash >>> 16)) & (_stripes.length - 1)];
+    }
+
+    /**
+     * Identifies the snippets of a field: the document, the field, its raw
+     * content, what the query matches, the language it's analyzed in and the
+     * settings they were made with. The plan and the language are null for
+     * the fields which are only snipped, as their snippets don't depend on them.
+     */
+    static final class Key
+    {
+
+        Key(String documentId, String field, String content, QueryMatchPlan plan, Language language,
+            SnippetSettings settings, boolean bolding)
+        {
+            _documentId = documentId;
+            _field = field;
+            _contentLength = content.length();
+            _contentHash = content.hashCode();
+            _planFingerprint = plan == null ? "" : plan.fingerprint();
+            _language = language;
+            _maxSnippets = settings.maxSnippetsPerField();
+            _nativeDynsnip = settings.isNativeDynsnip();
+            _bolding = bolding;
+            _hash = Objects.hash(_documentId, _field, _contentLength, _contentHash, _planFingerprint, _language,
+                                 _maxSnippets, _nativeDynsnip, _bolding);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if ( ! (o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return _hash == other._hash
+                   && _contentLength == other._contentLength
+                   && _contentHash == other._contentHash
+                   && _language == other._language
+                   && _maxSnippets == other._maxSnippets
+                   && _nativeDynsnip == other._nativeDynsnip
+                   && _bolding == other._bolding
+                   && _documentId.equals(other._documentId)
+                   && _field.equals(other._field)
+                   && _planFingerprint.equals(other._planFingerprint);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hash;
+        }
+
+        private final String _documentId;
+        private final String _field;
+        private final int _contentLength;
+        private final int _contentHash;
+        private final String _planFingerprint;
+        private final Language _language; // the language selecting the analyzer of the query and of dynsnip.
+        private final int _maxSnippets;
+        private final boolean _nativeDynsnip;
+        private final boolean _bolding;
+        private final int _hash;
+
+    }
+
+    /**
+     * The snippets of a field, either of which is null when its command isn't
+     * set on the field.
+     */
+    static final class Entry
+    {
+
+        Entry(FieldSnippets snippets, String dynamicSnippet)
+        {
+            this.snippets = snippets;
+            this.dynamicSnippet = dynamicSnippet;
+        }
+
+        final FieldSnippets snippets;
+
+        final String dynamicSnippet;
+
+    }
+
+    private class Stripe extends LinkedHashMap<Key, Entry>
+    {
+
+        Stripe(int maxSize)
+        {
+            super(16, 0.75f, true);
+            _maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+        {
+            if (size() <= _maxSize)
+                return false;
+            _evictions.increment();
+            return true;
+        }
+
+        private final int _maxSize;
+
+    }
+
+    private final Stripe[] _stripes;
+
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+
+}
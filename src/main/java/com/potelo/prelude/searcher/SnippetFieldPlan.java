@@ -0,0 +1,133 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.TokenBoundaryCodec;
+import com.yahoo.prelude.Index;
+import com.yahoo.prelude.IndexFacts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The fields of a document type to snip, dynsnip, or both, resolved once
+ * from its indexes.
+ * <p>
+ * Note: plans are immutable and cached per IndexFacts instance, so a
+ * reconfiguration, which comes with new IndexFacts, resolves them again.
+ */
+final class SnippetFieldPlan
+{
+
+    private SnippetFieldPlan(List<Field> fields)
+    {
+        _fields = Collections.unmodifiableList(fields);
+    }
+
+    static SnippetFieldPlan of(Collection<Index> indexes)
+    {
+        List<Field> fields = new ArrayList<>();
+        for (Index index : indexes)
+        {
+            // snip and dynsnip are incompatibles with Vespa's dyn summary.
+            // both snip and dynsnip needs a highlight configuration (bolding).
+            if (index.getDynamicSummary() || ! index.getHighlightSummary())
+                continue;
+
+            boolean snip = index.hasCommand("snip");
+            boolean dynsnip = index.hasCommand("dynsnip");
+            if (snip || dynsnip)
+                fields.add(new Field(index.getName(), snip, dynsnip));
+        }
+        return fields.isEmpty() ? EMPTY : new SnippetFieldPlan(fields);
+    }
+
+    /**
+     * Returns the fields to process, in index order.
+     */
+    List<Field> fields()
+    {
+        return _fields;
+    }
+
+    boolean isEmpty()
+    {
+        return _fields.isEmpty();
+    }
+
+    /** A field to snip, dynsnip, or both. */
+    static final class Field
+    {
+
+        private Field(String name, boolean snip, boolean dynsnip)
+        {
+            this.name = name;
+            this.snip = snip;
+            this.dynsnip = dynsnip;
+            companionName = name + TokenBoundaryCodec.COMPANION_SUFFIX;
+        }
+
+        final String name;
+
+        final boolean snip;
+
+        final boolean dynsnip;
+
+        final String companionName; // the field holding the word boundaries stored at feed time.
+
+    }
+
+    /**
+     * The plans of the document types of the latest IndexFacts seen.
+     */
+    static final class Cache
+    {
+
+        SnippetFieldPlan get(IndexFacts indexFacts, String documentType)
+        {
+            Generation generation = _generation;
+            if (generation == null || generation.indexFacts != indexFacts)
+            {
+                generation = new Generation(indexFacts);
+                _generation = generation;
+            }
+            return generation.plan(documentType);
+        }
+
+        private static final class Generation
+        {
+
+            Generation(IndexFacts indexFacts)
+            {
+                this.indexFacts = indexFacts;
+                // the indexes of a document type don't depend on the query.
+                _indexes = indexFacts.newSession(Collections.emptyList(), Collections.emptyList());
+            }
+
+            SnippetFieldPlan plan(String documentType)
+            {
+                SnippetFieldPlan plan = _plans.get(documentType);
+                if (plan == null)
+                    plan = _plans.computeIfAbsent(documentType, type -> of(_indexes.getIndexes(type)));
+                return plan;
+            }
+
+            final IndexFacts indexFacts;
+
+            private final IndexFacts.Session _indexes;
+
+            private final Map<String, SnippetFieldPlan> _plans = new ConcurrentHashMap<>();
+
+        }
+
+        private volatile Generation _generation;
+
+    }
+
+    private static final SnippetFieldPlan EMPTY = new SnippetFieldPlan(new ArrayList<>());
+
+    private final List<Field> _fields;
+
+}
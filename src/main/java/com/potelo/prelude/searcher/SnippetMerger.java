@@ -0,0 +1,116 @@
+package com.potelo.prelude.searcher;
+
+import java.util.Arrays;
+
+/**
+ * Groups the highlighted ranges of a field into snippets, merging the closest
+ * neighbours first for as long as the merged snippet stays under a length bound.
+ * <p>
+ * Since only neighbours are merged, every snippet is a run of consecutive
+ * ranges, tracked by its first and last range indexes until the next merge.
+ */
+class SnippetMerger
+{
+
+    SnippetMerger()
+    {
+        ensureCapacity(16);
+    }
+
+    /**
+     * Merges the count ranges given by their sorted starts and (exclusive) ends,
+     * and returns the number of resulting snippets, in offset order.
+     */
+    int merge(int[] starts, int[] ends, int count, int upperBound)
+    {
+        ensureCapacity(count);
+        for (int i = 0; i < count; ++i)
+        {
+            _firstOf[i] = i;
+            _lastOf[i] = i;
+            _assigned[i] = false;
+        }
+
+        // the gap between ranges i and i + 1, ordered by distance and then by position.
+        for (int i = 0; i + 1 < count; ++i)
+            _gaps[i] = ((long) (starts[i + 1] - ends[i]) << 32) | i;
+        Arrays.sort(_gaps, 0, Math.max(0, count - 1));
+
+        for (int k = 0; k + 1 < count; ++k)
+        {
+            // a gap not merged yet always lies between the last range of a
+            // snippet and the first range of the next one.
+            int left = (int) _gaps[k];
+            int right = left + 1;
+            int first = _firstOf[left];
+            int last = _lastOf[right];
+
+            // snippets already holding both sides may grow up to the bound,
+            // otherwise they must stay under it.
+            int length = ends[last] - starts[first];
+            boolean merge = _assigned[left] && _assigned[right] ? length <= upperBound : length < upperBound;
+            if (merge)
+            {
+                _lastOf[first] = last;
+                _firstOf[last] = first;
+            }
+            _assigned[left] = true;
+            _assigned[right] = true;
+        }
+
+        int snippetCount = 0;
+        for (int i = 0; i < count; i = _lastOf[i] + 1)
+        {
+            _snippetFirst[snippetCount] = i;
+            _snippetLast[snippetCount] = _lastOf[i];
+            snippetCount++;
+        }
+        return snippetCount;
+    }
+
+    /**
+     * Returns the index of the first range of the snippet of the last merge.
+     */
+    int first(int snippet)
+    {
+        return _snippetFirst[snippet];
+    }
+
+    /**
+     * Returns the index of the last range of the snippet of the last merge.
+     */
+    int last(int snippet)
+    {
+        return _snippetLast[snippet];
+    }
+
+    private void ensureCapacity(int count)
+    {
+        if (_firstOf != null && _firstOf.length >= count)
+            return;
+
+        int capacity = Math.max(count, _firstOf == null ? 0 : 2 * _firstOf.length);
+        _firstOf = new int[capacity];
+        _lastOf = new int[capacity];
+        _assigned = new boolean[capacity];
+        _gaps = new long[capacity];
+        _snippetFirst = new int[capacity];
+        _snippetLast = new int[capacity];
+    }
+
+    // for the last range of a snippet, its first range.
+    private int[] _firstOf;
+
+    // for the first range of a snippet, its last range.
+    private int[] _lastOf;
+
+    // whether a range already belongs to a snippet.
+    private boolean[] _assigned;
+
+    private long[] _gaps;
+
+    private int[] _snippetFirst;
+
+    private int[] _snippetLast;
+
+}
@@ -0,0 +1,148 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.jdisc.Metric;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports what snippeting costs through the container metrics, dimensioned by
+ * document type and field.
+ * <p>
+ * Note: metric contexts are created once per document type and field, and
+ * latencies are reported in milliseconds.
+ */
+class SnippetMetrics
+{
+
+    SnippetMetrics(Metric metric)
+    {
+        _metric = metric;
+        _requestContext = metric.createContext(new HashMap<>());
+    }
+
+    /**
+     * Reports hits snipped by a request, either in the search thread or in parallel.
+     */
+    void hitsProcessed(int hits, boolean parallel, long nanos)
+    {
+        _metric.set(REQUEST_LATENCY, millis(nanos), _requestContext);
+        _metric.add(parallel ? PARALLEL_HITS : SEQUENTIAL_HITS, hits, _requestContext);
+    }
+
+    void stripped(String documentType, String field, int fieldLength, long nanos)
+    {
+        Metric.Context context = context(documentType, field);
+        _metric.set(STRIP_LATENCY, millis(nanos), context);
+        _metric.set(FIELD_LENGTH, fieldLength, context);
+    }
+
+    void snipped(String documentType, String field, int highlights, int snippets, long nanos)
+    {
+        Metric.Context context = context(documentType, field);
+        _metric.set(SNIP_LATENCY, millis(nanos), context);
+        _metric.set(HIGHLIGHTS, highlights, context);
+        _metric.add(SNIPPETS, snippets, context);
+    }
+
+    /**
+     * Reports a dynamic snippet, a fallback one when the field has nothing to highlight.
+     */
+    void dynamicSnipped(String documentType, String field, boolean fallback, long nanos)
+    {
+        Metric.Context context = context(documentType, field);
+        _metric.set(DYNSNIP_LATENCY, millis(nanos), context);
+        _metric.add(DYNSNIPS, 1, context);
+        if (fallback)
+            _metric.add(DYNSNIP_FALLBACKS, 1, context);
+    }
+
+    void cacheLookup(String documentType, String field, boolean hit)
+    {
+        _metric.add(hit ? CACHE_HITS : CACHE_MISSES, 1, context(documentType, field));
+    }
+
+    void cacheState(SnippetCache cache)
+    {
+        _metric.set(CACHE_SIZE, cache.size(), _requestContext);
+        _metric.set(CACHE_EVICTIONS, cache.evictions(), _requestContext);
+    }
+
+    /**
+     * Reports a field snipped cheaper than configured, or not at all, to meet the query timeout.
+     */
+    void degraded(String documentType, String field)
+    {
+        _metric.add(DEGRADED_FIELDS, 1, context(documentType, field));
+    }
+
+    void degradedHits(int hits)
+    {
+        _metric.add(DEGRADED_HITS, hits, _requestContext);
+    }
+
+    void error(String documentType, String field)
+    {
+        _metric.add(ERRORS, 1, documentType == null ? _requestContext : context(documentType, field));
+    }
+
+    /**
+     * Returns the context of the field of documentType, or of the whole
+     * document type if field is null.
+     */
+    private Metric.Context context(String documentType, String field)
+    {
+        Map<String, Metric.Context> fieldContexts = _contexts.get(documentType);
+        if (fieldContexts == null)
+            fieldContexts = _contexts.computeIfAbsent(documentType, t -> new ConcurrentHashMap<>());
+
+        String key = field == null ? "" : field; // no null keys in a ConcurrentHashMap.
+        Metric.Context context = fieldContexts.get(key);
+        if (context == null)
+        {
+            context = fieldContexts.computeIfAbsent(key, f -> {
+                Map<String, String> dimensions = new HashMap<>();
+                dimensions.put(DOCUMENT_TYPE_DIMENSION, documentType);
+                if (field != null)
+                    dimensions.put(FIELD_DIMENSION, field);
+                return _metric.createContext(dimensions);
+            });
+        }
+        return context;
+    }
+
+    private static double millis(long nanos)
+    {
+        return nanos / 1_000_000.0;
+    }
+
+    static final String REQUEST_LATENCY = "snipper.request.latency";
+    static final String SEQUENTIAL_HITS = "snipper.hits.sequential";
+    static final String PARALLEL_HITS = "snipper.hits.parallel";
+    static final String STRIP_LATENCY = "snipper.strip.latency";
+    static final String FIELD_LENGTH = "snipper.field.length";
+    static final String SNIP_LATENCY = "snipper.snip.latency";
+    static final String HIGHLIGHTS = "snipper.snip.highlights";
+    static final String SNIPPETS = "snipper.snip.snippets";
+    static final String DYNSNIP_LATENCY = "snipper.dynsnip.latency";
+    static final String DYNSNIPS = "snipper.dynsnip.count";
+    static final String DYNSNIP_FALLBACKS = "snipper.dynsnip.fallbacks";
+    static final String CACHE_HITS = "snipper.cache.hits";
+    static final String CACHE_MISSES = "snipper.cache.misses";
+    static final String CACHE_SIZE = "snipper.cache.size";
+    static final String CACHE_EVICTIONS = "snipper.cache.evictions";
+    static final String DEGRADED_HITS = "snipper.degraded.hits";
+    static final String DEGRADED_FIELDS = "snipper.degraded.fields";
+    static final String ERRORS = "snipper.errors";
+
+    static final String DOCUMENT_TYPE_DIMENSION = "documenttype";
+    static final String FIELD_DIMENSION = "field";
+
+    private final Metric _metric;
+
+    private final Metric.Context _requestContext;
+
+    private final Map<String, Map<String, Metric.Context>> _contexts = new ConcurrentHashMap<>();
+
+}
@@ -0,0 +1,171 @@
+package com.potelo.prelude.searcher;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the best snippets of a field out of the ones grouped by a
+ * {@link SnippetMerger}, using a bounded heap of their scores.
+ * <p>
+ * A snippet scores by its distinct highlighted words, its highlights, whose
+ * count is their density since snippets are bounded in length, and a small
+ * bonus the closer it is to the start of the field.
+ */
+class SnippetRanker
+{
+
+    SnippetRanker()
+    {
+        ensureCapacity(16);
+    }
+
+    /**
+     * Selects at most maxSnippets of the snippetCount snippets of the last merge
+     * of merger, and returns how many were selected, in offset order.
+     */
+    int select(SnippetMerger merger, int snippetCount, int maxSnippets,
+               CharSequence text, int[] starts, int[] ends)
+    {
+        _selectedCount = 0;
+        _merger = merger;
+        if (snippetCount <= maxSnippets)
+        {
+            ensureCapacity(snippetCount);
+            for (int k = 0; k < snippetCount; ++k)
+                _selected[_selectedCount++] = k;
+            return _selectedCount;
+        }
+
+        ensureCapacity(maxSnippets);
+        for (int k = 0; k < snippetCount; ++k)
+        {
+            int first = merger.first(k), last = merger.last(k);
+            int highlights = last - first + 1;
+            double position = 1 + POSITION_BONUS * (1 - (double) starts[first] / Math.max(1, text.length()));
+
+            // with every highlight a distinct word, a snippet that still can't
+            // beat the worst kept one doesn't need its words compared.
+            if (_selectedCount == maxSnippets && score(highlights, highlights, position) <= _scores[0])
+                continue;
+
+            double score = score(distinctWords(text, starts, ends, first, last), highlights, position);
+            if (_selectedCount < maxSnippets)
+                push(k, score);
+            else if (score > _scores[0])
+                replaceTop(k, score);
+        }
+
+        Arrays.sort(_selected, 0, _selectedCount);
+        return _selectedCount;
+    }
+
+    /**
+     * Returns the index of the first range of a selected snippet.
+     */
+    int first(int selected)
+    {
+        return _merger.first(_selected[selected]);
+    }
+
+    /**
+     * Returns the index of the last range of a selected snippet.
+     */
+    int last(int selected)
+    {
+        return _merger.last(_selected[selected]);
+    }
+
+    private static double score(int distinctWords, int highlights, double position)
+    {
+        return (DISTINCT_WORD_WEIGHT * distinctWords + highlights) * position;
+    }
+
+    /**
+     * Returns the number of case insensitive distinct words highlighted by the
+     * ranges first to last.
+     */
+    private static int distinctWords(CharSequence text, int[] starts, int[] ends, int first, int last)
+    {
+        int distinct = 0;
+        for (int i = first; i <= last; ++i)
+        {
+            boolean seen = false;
+            for (int j = first; j < i && ! seen; ++j)
+                seen = sameWord(text, starts[i], ends[i], starts[j], ends[j]);
+            if ( ! seen)
+                distinct++;
+        }
+        return distinct;
+    }
+
+    private static boolean sameWord(CharSequence text, int start, int end, int otherStart, int otherEnd)
+    {
+        if (end - start != otherEnd - otherStart)
+            return false;
+        for (int i = 0; i < end - start; ++i)
+        {
+            char c = text.charAt(start + i), other = text.charAt(otherStart + i);
+            if (c != other && Character.toLowerCase(c) != Character.toLowerCase(other))
+                return false;
+        }
+        return true;
+    }
+
+    // the kept snippets form a min-heap on their scores, the worst at the root.
+
+    private void push(int snippet, double score)
+    {
+        int i = _selectedCount++;
+        while (i > 0 && _scores[(i - 1) / 2] > score)
+        {
+            _scores[i] = _scores[(i - 1) / 2];
+            _selected[i] = _selected[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        _scores[i] = score;
+        _selected[i] = snippet;
+    }
+
+    private void replaceTop(int snippet, double score)
+    {
+        int i = 0;
+        while (2 * i + 1 < _selectedCount)
+        {
+            int child = 2 * i + 1;
+            if (child + 1 < _selectedCount && _scores[child + 1] < _scores[child])
+                child++;
+            if (_scores[child] >= score)
+                break;
+            _scores[i] = _scores[child];
+            _selected[i] = _selected[child];
+            i = child;
+        }
+        _scores[i] = score;
+        _selected[i] = snippet;
+    }
+
+    private void ensureCapacity(int count)
+    {
+        if (_selected != null && _selected.length >= count)
+            return;
+
+        int capacity = Math.max(count, _selected == null ? 0 : 2 * _selected.length);
+        _selected = new int[capacity];
+        _scores = new double[capacity];
+    }
+
+    // a distinct word is worth this many repeated highlights.
+    private static final double DISTINCT_WORD_WEIGHT = 2;
+
+    // the score increase of a snippet at the very start of the field.
+    private static final double POSITION_BONUS = 0.25;
+
+    private SnippetMerger _merger;
+
+    // the kept snippets, as indexes of the snippets of the merger.
+    private int[] _selected;
+
+    private double[] _scores;
+
+    private int _selectedCount;
+
+}
@@ -0,0 +1,131 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.processing.request.CompoundName;
+import com.yahoo.search.Query;
+
+/**
+ * The snippet limits of a request: the configured ones, lowered by the
+ * overrides of the query, if any, the way dynamic snippets are picked and the
+ * format the snippets are rendered in.
+ * <p>
+ * Note: a query may only ask for cheaper snippets, so overrides beyond the
+ * configured limits are clamped to them.
+ */
+final class SnippetSettings
+{
+
+    private SnippetSettings(int maxSnippetsPerField, int maxFieldsPerHit, boolean nativeDynsnip, boolean compact)
+    {
+        _maxSnippetsPerField = maxSnippetsPerField;
+        _maxFieldsPerHit = maxFieldsPerHit;
+        _nativeDynsnip = nativeDynsnip;
+        _compact = compact;
+    }
+
+    /**
+     * Returns the settings of this query, validating and storing them in the
+     * query properties on first use.
+     *
+     * @throws IllegalArgumentException if an override isn't a positive integer,
+     *         or the dynsnip or format is unknown.
+     */
+    static SnippetSettings of(Query query, SnipperConfig config)
+    {
+        Object settings = query.properties().get(PROPERTY);
+        if (settings instanceof SnippetSettings)
+            return (SnippetSettings) settings;
+
+        SnippetSettings resolved = new SnippetSettings(
+                limit(config.maxSnippetsPerField(), query, MAX_SNIPPETS),
+                limit(config.maxFieldsPerHit(), query, MAX_FIELDS),
+                isNativeDynsnip(config, query),
+                isCompact(query));
+        query.properties().set(PROPERTY, resolved);
+        return resolved;
+    }
+
+    /** Returns the maximum number of snippets of a field, 0 is unlimited. */
+    int maxSnippetsPerField()
+    {
+        return _maxSnippetsPerField;
+    }
+
+    /** Returns the maximum number of fields processed per hit, 0 is unlimited. */
+    int maxFieldsPerHit()
+    {
+        return _maxFieldsPerHit;
+    }
+
+    /**
+     * Returns whether dynamic snippets are picked from the backend highlights
+     * instead of highlighted by Lucene.
+     */
+    boolean isNativeDynsnip()
+    {
+        return _nativeDynsnip;
+    }
+
+    /**
+     * Returns whether snippets are rendered as offsets only, without their content.
+     */
+    boolean isCompact()
+    {
+        return _compact;
+    }
+
+    private static boolean isNativeDynsnip(SnipperConfig config, Query query)
+    {
+        String dynsnip = query.properties().getString(DYNSNIP);
+        if (dynsnip == null)
+            return config.dynsnip() == SnipperConfig.Dynsnip.NATIVE;
+        if (dynsnip.equals("native"))
+            return true;
+        if (dynsnip.equals("lucene"))
+            return false;
+        throw new IllegalArgumentException("'" + DYNSNIP + "' must be 'lucene' or 'native', got '" + dynsnip + "'");
+    }
+
+    private static boolean isCompact(Query query)
+    {
+        String format = query.properties().getString(FORMAT);
+        if (format == null || format.equals("full"))
+            return false;
+        if (format.equals("compact"))
+            return true;
+        throw new IllegalArgumentException("'" + FORMAT + "' must be 'full' or 'compact', got '" + format + "'");
+    }
+
+    private static int limit(int configured, Query query, CompoundName name)
+    {
+        Object value = query.properties().get(name);
+        if (value == null)
+            return configured;
+
+        int requested;
+        try
+        {
+            requested = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+        }
+        catch (NumberFormatException e)
+        {
+            requested = 0;
+        }
+        if (requested < 1)
+            throw new IllegalArgumentException("'" + name + "' must be a positive integer, got '" + value + "'");
+
+        return configured == 0 ? requested : Math.min(requested, configured);
+    }
+
+    static final CompoundName MAX_SNIPPETS = new CompoundName("snipper.maxsnippets");
+    static final CompoundName MAX_FIELDS = new CompoundName("snipper.maxfields");
+    static final CompoundName DYNSNIP = new CompoundName("snipper.dynsnip");
+    static final CompoundName FORMAT = new CompoundName("snipper.format");
+
+    private static final CompoundName PROPERTY = new CompoundName("snipper.settings");
+
+    private final int _maxSnippetsPerField;
+    private final int _maxFieldsPerHit;
+    private final boolean _nativeDynsnip;
+    private final boolean _compact;
+
+}
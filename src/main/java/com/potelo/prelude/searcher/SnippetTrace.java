@@ -0,0 +1,186 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.search.Query;
+import com.yahoo.search.result.Hit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The time each hit and field of a request spent in each snippeting phase,
+ * written to the query trace.
+ * <p>
+ * Note: a trace only exists when the query trace level is at least LEVEL, so
+ * requests not traced only pay for a null check per phase.
+ */
+final class SnippetTrace
+{
+
+    private SnippetTrace()
+    {
+    }
+
+    /**
+     * Returns a new trace if this query is traced deep enough, null otherwise.
+     */
+    static SnippetTrace of(Query query)
+    {
+        return query.getTraceLevel() >= LEVEL ? new SnippetTrace() : null;
+    }
+
+    void add(HitTrace hit)
+    {
+        _hits.add(hit);
+    }
+
+    /**
+     * Traces the phases of every hit and field, and the slowest hits.
+     */
+    void writeTo(Query query, String summaryClass, long nanos)
+    {
+        for (HitTrace hit : _hits)
+            query.trace(hit.toString(summaryClass), LEVEL);
+
+        List<HitTrace> slowest = new ArrayList<>(_hits);
+        slowest.sort(Comparator.comparingLong((HitTrace hit) -> hit._nanos).reversed());
+        StringBuilder message = new StringBuilder("snipper [").append(summaryClass).append("] ")
+                .append(_hits.size()).append(" hits in ").append(millis(nanos)).append(" ms, slowest:");
+        for (int i = 0; i < Math.min(SLOWEST_HITS, slowest.size()); ++i)
+            message.append(' ').append(slowest.get(i)._id).append(" (").append(millis(slowest.get(i)._nanos)).append(" ms)");
+        query.trace(message.toString(), LEVEL);
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    /** The snippeting phases of a field. */
+    enum Phase
+    {
+        STRIP, SCAN, MERGE, EXPAND, DYNSNIP;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The phases of the fields of a hit, timed by the thread processing it.
+     */
+    static final class HitTrace
+    {
+
+        HitTrace(Hit hit)
+        {
+            _id = String.valueOf(hit.getId());
+            _start = System.nanoTime();
+        }
+
+        /** Returns the trace of a field, timing from now on. */
+        FieldTrace field(String name)
+        {
+            FieldTrace field = new FieldTrace(name);
+            _fields.add(field);
+            return field;
+        }
+
+        void finish()
+        {
+            _nanos = System.nanoTime() - _start;
+        }
+
+        String toString(String summaryClass)
+        {
+            StringBuilder message = new StringBuilder("snipper [").append(summaryClass).append("] ").append(_id)
+                    .append(' ').append(millis(_nanos)).append(" ms:");
+            for (FieldTrace field : _fields)
+                field.appendTo(message.append(' '));
+            return message.toString();
+        }
+
+        private final String _id;
+
+        private final long _start;
+
+        private long _nanos;
+
+        private final List<FieldTrace> _fields = new ArrayList<>();
+
+    }
+
+    static final class FieldTrace
+    {
+
+        private FieldTrace(String name)
+        {
+            _name = name;
+            _mark = System.nanoTime();
+        }
+
+        /** Restarts timing, leaving out what happened since the last phase. */
+        void mark()
+        {
+            _mark = System.nanoTime();
+        }
+
+        /** Adds the time since the last phase, or mark, to phase. */
+        void lap(Phase phase)
+        {
+            long now = System.nanoTime();
+            _nanos[phase.ordinal()] += now - _mark;
+            _mark = now;
+        }
+
+        void cached()
+        {
+            _cached = true;
+        }
+
+        void degraded(SnippetBudget.Level level)
+        {
+            _degraded = level;
+        }
+
+        private void appendTo(StringBuilder message)
+        {
+            message.append(_name).append(" (");
+            if (_cached)
+            {
+                message.append("cached)");
+                return;
+            }
+            boolean first = true;
+            for (Phase phase : Phase.values())
+            {
+                if (_nanos[phase.ordinal()] == 0)
+                    continue;
+                message.append(first ? "" : ", ").append(phase.label).append(' ').append(millis(_nanos[phase.ordinal()]));
+                first = false;
+            }
+            if (_degraded != null)
+                message.append(first ? "" : ", ").append("degraded ").append(_degraded.label);
+            message.append(')');
+        }
+
+        private final String _name;
+
+        private final long[] _nanos = new long[Phase.values().length];
+
+        private long _mark;
+
+        private boolean _cached;
+
+        private SnippetBudget.Level _degraded; // null when snipped as configured.
+
+    }
+
+    // The trace level the snippeting phases are traced from
+    static final int LEVEL = 5;
+
+    // The slowest hits named by the summary of a trace
+    private static final int SLOWEST_HITS = 3;
+
+    private final List<HitTrace> _hits = new ArrayList<>();
+
+}
@@ -0,0 +1,102 @@
+package com.potelo.prelude.searcher;
+
+/**
+ * A stripped field text of which only some windows, in offset order and apart
+ * from each other, were copied. Offsets are the ones of the whole text.
+ * <p>
+ * Note: chars outside the windows read as spaces, thus they never belong to a
+ * word, and a sequence crossing windows is built char by char.
+ */
+final class WindowedText implements CharSequence
+{
+
+    WindowedText(int length, int[] starts, int[] ends, int count, char[] chars)
+    {
+        _length = length;
+        _starts = starts;
+        _ends = ends;
+        _count = count;
+        _chars = chars;
+        _offsets = new int[count];
+        for (int i = 1; i < count; ++i)
+            _offsets[i] = _offsets[i - 1] + _ends[i - 1] - _starts[i - 1];
+    }
+
+    int windowCount()
+    {
+        return _count;
+    }
+
+    int windowStart(int window)
+    {
+        return _starts[window];
+    }
+
+    int windowEnd(int window)
+    {
+        return _ends[window];
+    }
+
+    @Override
+    public int length()
+    {
+        return _length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if (index < 0 || index >= _length)
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + _length);
+
+        // reads are mostly sequential, within the window of the last one.
+        int window = _lastWindow;
+        if (index < _starts[window] || index >= _ends[window])
+        {
+            window = Math.max(0, UtilsSearcher.upperBound(_starts, _count, index) - 1);
+            _lastWindow = window;
+        }
+        if (index < _starts[window] || index >= _ends[window])
+            return ' ';
+        return _chars[_offsets[window] + index - _starts[window]];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > _length || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " out of " + _length);
+
+        int window = Math.max(0, UtilsSearcher.upperBound(_starts, _count, start) - 1);
+        if (_count > 0 && _starts[window] <= start && end <= _ends[window])
+            return new String(_chars, _offsets[window] + start - _starts[window], end - start);
+
+        StringBuilder sequence = new StringBuilder(end - start);
+        for (int i = start; i < end; ++i)
+            sequence.append(charAt(i));
+        return sequence.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return subSequence(0, _length).toString();
+    }
+
+    private final int _length;
+
+    private final int[] _starts;
+
+    private final int[] _ends;
+
+    private final int _count;
+
+    // the chars of the windows, one after the other.
+    private final char[] _chars;
+
+    // for each window, the offset of its first char in _chars.
+    private final int[] _offsets;
+
+    private int _lastWindow;
+
+}
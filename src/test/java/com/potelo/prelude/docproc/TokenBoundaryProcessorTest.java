@@ -0,0 +1,65 @@
+package com.potelo.prelude.docproc;
+
+import com.potelo.prelude.hitfield.TokenBoundaryCodec;
+import com.yahoo.docproc.DocumentProcessor;
+import com.yahoo.docproc.Processing;
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentId;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentUpdate;
+import com.yahoo.document.datatypes.StringFieldValue;
+import com.yahoo.document.update.FieldUpdate;
+import com.yahoo.document.update.ValueUpdate;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TokenBoundaryProcessorTest {
+
+    private static final String BODY = "Os carros e as motos, na estrada.";
+
+    @Test
+    void companionFieldsOfPutsAreSet() {
+        DocumentType type = articleType();
+        Document document = new Document(type, new DocumentId("id:test:article::1"));
+        document.setFieldValue("body", new StringFieldValue(BODY));
+        document.setFieldValue("title", new StringFieldValue("Carros"));
+
+        assertEquals(DocumentProcessor.Progress.DONE, new TokenBoundaryProcessor().process(Processing.of(new DocumentPut(document))));
+        assertEquals(TokenBoundaryCodec.encode(BODY), document.getFieldValue("body_tokenboundaries").toString());
+        assertNull(document.getFieldValue("title_tokenboundaries"), "only fields with a companion are processed");
+    }
+
+    @Test
+    void stalePutCompanionsAreRemoved() {
+        Document document = new Document(articleType(), new DocumentId("id:test:article::1"));
+        document.setFieldValue("body_tokenboundaries", new StringFieldValue("stale"));
+
+        new TokenBoundaryProcessor().process(Processing.of(new DocumentPut(document)));
+        assertNull(document.getFieldValue("body_tokenboundaries"));
+    }
+
+    @Test
+    void assignmentsUpdateTheCompanionField() {
+        DocumentType type = articleType();
+        DocumentUpdate update = new DocumentUpdate(type, new DocumentId("id:test:article::1"));
+        update.addFieldUpdate(FieldUpdate.createAssign(type.getField("body"), new StringFieldValue(BODY)));
+
+        new TokenBoundaryProcessor().process(Processing.of(update));
+        FieldUpdate companion = update.getFieldUpdate("body_tokenboundaries");
+        assertEquals(ValueUpdate.ValueUpdateClassID.ASSIGN, companion.getValueUpdate(0).getValueUpdateClassID());
+        assertEquals(TokenBoundaryCodec.encode(BODY), companion.getValueUpdate(0).getValue().toString());
+    }
+
+    private static DocumentType articleType() {
+        DocumentType type = new DocumentType("article");
+        type.addField("body", DataType.STRING);
+        type.addField("body_tokenboundaries", DataType.STRING);
+        type.addField("title", DataType.STRING);
+        return type;
+    }
+
+}
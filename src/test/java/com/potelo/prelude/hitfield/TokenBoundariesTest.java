@@ -0,0 +1,45 @@
+package com.potelo.prelude.hitfield;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBoundariesTest {
+
+    @Test
+    void accentedWordsAreNotSplit() {
+        TokenBoundaries tokens = new TokenBoundaries(1).scan("A ação, da família_2 é válida.");
+
+        assertBoundaries(tokens, 0, 1, 2, 6, 8, 10, 11, 20, 21, 22, 23, 29);
+    }
+
+    @Test
+    void combiningMarksAndSurrogatesBelongToWords() {
+        String decomposed = "aca\u0303o x";  // "acão" with a combining tilde
+        assertBoundaries(new TokenBoundaries().scan(decomposed), 0, 5, 6, 7);
+
+        String mathematical = "\uD835\uDC00b c";  // a mathematical bold 'A' outside the BMP
+        assertBoundaries(new TokenBoundaries().scan(mathematical), 0, 3, 4, 5);
+    }
+
+    @Test
+    void scansAreReusableAndAppendRanges() {
+        TokenBoundaries tokens = new TokenBoundaries();
+        tokens.scan("uma frase longa");
+        tokens.scan("outra");
+        assertBoundaries(tokens, 0, 5);
+
+        tokens.clear();
+        tokens.scan("uma frase longa", 0, 6).scan("uma frase longa", 10, 15);
+        assertBoundaries(tokens, 0, 3, 4, 6, 10, 15);
+    }
+
+    private static void assertBoundaries(TokenBoundaries tokens, int... startsAndEnds) {
+        assertEquals(startsAndEnds.length / 2, tokens.size());
+        for (int i = 0; i < tokens.size(); ++i) {
+            assertEquals(startsAndEnds[2 * i], tokens.start(i), "start of token " + i);
+            assertEquals(startsAndEnds[2 * i + 1], tokens.end(i), "end of token " + i);
+        }
+    }
+
+}
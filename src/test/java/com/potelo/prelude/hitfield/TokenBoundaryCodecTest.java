@@ -0,0 +1,48 @@
+package com.potelo.prelude.hitfield;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBoundaryCodecTest {
+
+    @Test
+    void decodedBoundariesAreTheScannedOnes() {
+        StringBuilder text = new StringBuilder("  A ação, da família_2 é válida. ");
+        for (int i = 0; i < 2000; ++i)
+            text.append("palavra").append(i).append(i % 7 == 0 ? ".\n" : " ");
+        TokenBoundaries scanned = new TokenBoundaries().scan(text);
+
+        TokenBoundaries decoded = new TokenBoundaries();
+        assertTrue(TokenBoundaryCodec.decode(TokenBoundaryCodec.encode(text), text.length(), decoded));
+        assertEquals(scanned.size(), decoded.size());
+        for (int i = 0; i < scanned.size(); ++i) {
+            assertEquals(scanned.start(i), decoded.start(i), "start of token " + i);
+            assertEquals(scanned.end(i), decoded.end(i), "end of token " + i);
+        }
+
+        assertTrue(TokenBoundaryCodec.decode(TokenBoundaryCodec.encode(""), 0, decoded));
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    void boundariesOfAnotherTextAreRejected() {
+        String encoded = TokenBoundaryCodec.encode("uma frase longa");
+        TokenBoundaries tokens = new TokenBoundaries();
+
+        assertFalse(TokenBoundaryCodec.decode(encoded, "uma frase".length(), tokens));
+        assertEquals(0, tokens.size());
+        assertFalse(TokenBoundaryCodec.decode("not base64!", 15, tokens));
+        assertFalse(TokenBoundaryCodec.decode(encoded.substring(0, encoded.length() - 2), 15, tokens));
+        assertEquals(0, tokens.size());
+
+        // a word reaching beyond the text.
+        byte[] beyond = { 1, 3, 1, 1, 5 };
+        assertFalse(TokenBoundaryCodec.decode(Base64.getEncoder().encodeToString(beyond), 3, tokens));
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.prelude.query.WordItem;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.br.BrazilianAnalyzer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DynamicSnippeterPoolTest {
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 200;
+    private static final int POOL_SIZE = 4;
+
+    @Test
+    void concurrentHighlightingHasNoCrossTalk() throws Exception {
+        Analyzer analyzer = new BrazilianAnalyzer();
+        DynamicSnippeterPool pool = new DynamicSnippeterPool(POOL_SIZE,
+                () -> new DynamicSnippeter(analyzer, "<b>", "</b>", "...", 320));
+
+        // every thread holds a snippeter at once, more than the pool retains, so
+        // a borrower waiting for another one to release would time the barrier out.
+        CyclicBarrier allBorrowing = new CyclicBarrier(THREADS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            final int thread = t;
+            Callable<Integer> task = () -> {
+                int highlighted = 0;
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    String word = uniqueWord(thread * ITERATIONS + i);
+                    String document = "O documento contém a palavra " + word + " e mais nada de interessante.";
+                    QueryMatchPlan plan = QueryMatchPlan.compile(new WordItem(word), analyzer);
+
+                    DynamicSnippeter snippeter = pool.acquire();
+                    String snippet;
+                    try {
+                        if (i == 0)
+                            allBorrowing.await(10, TimeUnit.SECONDS);
+                        snippet = snippeter.highlight(plan, document);
+                    }
+                    finally {
+                        pool.release(snippeter);
+                    }
+
+                    assertNotNull(snippet);
+                    assertTrue(snippet.contains("<b>" + word + "</b>"), snippet + " should highlight " + word);
+                    highlighted++;
+                }
+                return highlighted;
+            };
+            futures.add(executor.submit(task));
+        }
+
+        int total = 0;
+        for (Future<Integer> future : futures)
+            total += future.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        assertEquals(THREADS * ITERATIONS, total);
+        // discarded snippeters are created again later, so only the lower bound holds.
+        assertTrue(pool.created() >= THREADS, "created " + pool.created() + " snippeters");
+        assertTrue(pool.idle() <= POOL_SIZE, "retained " + pool.idle() + " snippeters");
+
+        pool.close();
+        assertEquals(0, pool.idle());
+    }
+
+    @Test
+    void releaseBeyondCapacityDiscardsInstances() {
+        Analyzer analyzer = new BrazilianAnalyzer();
+        DynamicSnippeterPool pool = new DynamicSnippeterPool(1,
+                () -> new DynamicSnippeter(analyzer, "<b>", "</b>", "...", 320));
+
+        DynamicSnippeter first = pool.acquire();
+        DynamicSnippeter second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(2, pool.created());
+        assertEquals(1, pool.idle());
+        assertTrue(first == pool.acquire());
+        DynamicSnippeter third = pool.acquire();
+        assertTrue(third != second, "the surplus instance is never borrowed again");
+        assertEquals(3, pool.created());
+    }
+
+    @Test
+    void passagesAreTakenFromTheMaxLength() throws Exception {
+        Analyzer analyzer = new BrazilianAnalyzer();
+        DynamicSnippeter snippeter = new DynamicSnippeter(analyzer, "<b>", "</b>", "...", 320);
+        StringBuilder filler = new StringBuilder();
+        while (filler.length() < 2000)
+            filler.append("um texto qualquer de preenchimento ");
+
+        QueryMatchPlan plan = QueryMatchPlan.compile(new WordItem("carros"), analyzer);
+
+        String early = snippeter.highlight(plan, "Os carros " + filler);
+        assertTrue(early.contains("<b>carros</b>"), early);
+        assertTrue(early.length() <= 320 + "<b></b>...".length(), early);
+
+        String late = snippeter.highlight(plan, filler + "os carros");
+        assertFalse(late.contains("carros"), "matches past the max length are left out: " + late);
+        analyzer.close();
+    }
+
+    // an alphabetic word that the analyzer will not split, unique for n.
+    private static String uniqueWord(int n) {
+        StringBuilder word = new StringBuilder("zq");
+        do {
+            word.append((char) ('a' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        return word.append("xv").toString();
+    }
+
+}
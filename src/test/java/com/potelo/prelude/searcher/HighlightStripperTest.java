@@ -0,0 +1,105 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.HighlightedRanges;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HighlightStripperTest {
+
+    private static final char HL = UtilsSearcher.RAW_HIGHLIGHT_CHAR;
+    private static final char SEP = UtilsSearcher.RAW_SEPARATOR_CHAR;
+
+    @Test
+    void contentWithoutTagsIsReturnedAsIs() {
+        HighlightStripper stripper = new HighlightStripper();
+        String content = "sem destaques";
+        assertSame(content, stripper.strip(content, true));
+        assertNull(stripper.ranges());
+    }
+
+    @Test
+    void tagsAreStrippedAndRangesLocated() {
+        HighlightStripper stripper = new HighlightStripper();
+        String content = "os " + HL + "carros" + HL + " e " + SEP + "as " + HL + "motos" + HL;
+        assertEquals("os carros e as motos", stripper.strip(content, true).toString());
+        HighlightedRanges ranges = stripper.ranges();
+        assertEquals(2, ranges.size());
+        assertEquals(3, ranges.start(0));
+        assertEquals(9, ranges.end(0));
+        assertEquals(15, ranges.start(1));
+        assertEquals(20, ranges.end(1));
+    }
+
+    @Test
+    void adjacentHighlightsAreMergedAndUnclosedOnesDropped() {
+        HighlightStripper stripper = new HighlightStripper();
+        String content = HL + "ab" + HL + HL + "cd" + HL + " " + HL + "ef";
+        assertEquals("abcd ef", stripper.strip(content, true).toString());
+        HighlightedRanges ranges = stripper.ranges();
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.start(0));
+        assertEquals(4, ranges.end(0));
+    }
+
+    @Test
+    void rangesAreOnlyGatheredWhenBolding() {
+        HighlightStripper stripper = new HighlightStripper();
+        assertEquals("ab cd", stripper.strip("a" + HL + "b" + HL + " cd", false).toString());
+        assertEquals(0, stripper.ranges().size());
+        // the buffer is reused by the next content.
+        assertEquals("x", stripper.strip(SEP + "x", true).toString());
+        assertNull(stripper.ranges());
+    }
+
+    @Test
+    void windowsMatchTheStrippedContent() {
+        Random random = new Random(7);
+        HighlightStripper stripper = new HighlightStripper();
+        for (int round = 0; round < 200; ++round) {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 300; ++i) {
+                int kind = random.nextInt(20);
+                content.append(kind == 0 ? HL : kind == 1 ? SEP : (char) ('a' + random.nextInt(26)));
+            }
+            String raw = content.toString();
+            boolean bolding = random.nextBoolean();
+
+            String stripped = stripper.strip(raw, bolding).toString();
+            HighlightedRanges expected = stripper.ranges();
+            WindowedText windowed = stripper.stripWindows(raw, bolding, raw.length(), 20, 10);
+            HighlightedRanges ranges = stripper.ranges();
+
+            assertEquals(stripped.length(), windowed.length());
+            assertEquals(expected == null ? 0 : expected.size(), ranges == null ? 0 : ranges.size());
+            for (int i = 0; ranges != null && i < ranges.size(); ++i) {
+                assertEquals(expected.start(i), ranges.start(i));
+                assertEquals(expected.end(i), ranges.end(i));
+            }
+            for (int w = 0; w < windowed.windowCount(); ++w) {
+                int start = windowed.windowStart(w), end = windowed.windowEnd(w);
+                assertEquals(stripped.substring(start, end), windowed.subSequence(start, end).toString());
+            }
+        }
+    }
+
+    @Test
+    void windowsOnlyCoverTheLeadingTextAndTheHighlights() {
+        HighlightStripper stripper = new HighlightStripper();
+        String content = "0123456789" + "abcdefghij".repeat(10) + HL + "carros" + HL + "abcdefghij".repeat(10);
+
+        WindowedText windowed = stripper.stripWindows(content, true, content.length(), 5, 10);
+        assertEquals(2, windowed.windowCount());
+        assertEquals("01234", windowed.subSequence(0, 5).toString());
+        assertEquals(100, windowed.windowStart(1));
+        assertEquals(126, windowed.windowEnd(1));
+        assertEquals("abcdefghijcarrosabcdefghij", windowed.subSequence(100, 126).toString());
+        assertEquals(' ', windowed.charAt(50));
+
+        windowed = stripper.stripWindows(content, true, 50, 5, 10);
+        assertEquals(50, windowed.length());
+        assertNull(stripper.ranges());
+    }
+}
@@ -0,0 +1,40 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.language.Language;
+import com.yahoo.prelude.query.WordItem;
+import com.yahoo.search.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LanguageAnalyzersTest {
+
+    @Test
+    void queriesAreAnalyzedInTheirLanguage() {
+        LanguageAnalyzers analyzers = new LanguageAnalyzers();
+
+        assertEquals(Language.ENGLISH, analyzers.languageOf(new Query("/search/?query=cars&language=en")));
+        assertEquals(Language.SPANISH, analyzers.languageOf(new Query("/search/?query=coches&language=es")));
+        assertEquals(Language.PORTUGUESE, analyzers.languageOf(new Query("/search/?query=carros&language=pt")));
+
+        assertEquals(Collections.singletonList("car"), terms(analyzers, Language.ENGLISH, "cars"));
+        assertEquals(Collections.singletonList("coch"), terms(analyzers, Language.SPANISH, "coches"));
+        analyzers.close();
+    }
+
+    @Test
+    void unsupportedLanguagesFallBack() {
+        LanguageAnalyzers analyzers = new LanguageAnalyzers();
+
+        assertEquals(LanguageAnalyzers.FALLBACK, analyzers.languageOf(new Query("/search/?query=autos&language=de")));
+        assertEquals(LanguageAnalyzers.FALLBACK, analyzers.languageOf(new Query("/search/?query=carros")));
+        analyzers.close();
+    }
+
+    private static Object terms(LanguageAnalyzers analyzers, Language language, String word) {
+        return QueryMatchPlan.compile(new WordItem(word), analyzers.get(language)).terms();
+    }
+
+}
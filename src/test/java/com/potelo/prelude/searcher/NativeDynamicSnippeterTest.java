@@ -0,0 +1,57 @@
+package com.potelo.prelude.searcher;
+
+import com.potelo.prelude.hitfield.HighlightedRanges;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class NativeDynamicSnippeterTest {
+
+    private final NativeDynamicSnippeter snippeter = new NativeDynamicSnippeter("[", "]", "~", 30);
+
+    @Test
+    void theWindowWithTheMostHighlightsIsPicked() {
+        String text = "um carro aqui, bem longe dali as motos e os carros juntos no fim do texto";
+        String snippet = snippeter.highlight(text, ranges(text, "carro", "motos", "carros"), text.length());
+
+        assertEquals("~as [motos] e os [carros] juntos~", snippet);
+    }
+
+    @Test
+    void passagesAreCutAtWordBoundaries() {
+        String text = "palavras longas antes do carro e palavras longas depois";
+        String snippet = snippeter.highlight(text, ranges(text, "carro"), text.length());
+
+        assertEquals("~antes do [carro] e palavras~", snippet);
+    }
+
+    @Test
+    void shortFieldsAreWhole() {
+        String text = "os carros.";
+        assertEquals("os [carros].", snippeter.highlight(text, ranges(text, "carros"), text.length()));
+
+        // an unscanned rest of the field is still marked.
+        assertEquals("os [carros].~", snippeter.highlight(text, ranges(text, "carros"), text.length() + 100));
+    }
+
+    @Test
+    void fieldsWithoutHighlightsHaveNoPassage() {
+        assertNull(snippeter.highlight("nada aqui", new HighlightedRanges(), 9));
+        assertNull(snippeter.highlight("nada aqui", null, 9));
+    }
+
+    private static HighlightedRanges ranges(String text, String... words) {
+        HighlightedRanges ranges = new HighlightedRanges();
+        int from = 0;
+        for (String word : words) {
+            int start = text.indexOf(" " + word + " ", from) + 1;
+            if (start == 0)
+                start = text.indexOf(word, from);
+            ranges.add(start, start + word.length());
+            from = start + word.length();
+        }
+        return ranges;
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.prelude.query.OrItem;
+import com.yahoo.prelude.query.WordItem;
+import com.yahoo.search.Query;
+
+import java.util.Random;
+
+/**
+ * Generates Portuguese field contents as the backend returns them: the query
+ * words wrapped in Juniper highlighting tags and fragments of the text split by
+ * Juniper separators. Shared by the benchmarks and the load test.
+ */
+public final class PortugueseCorpus {
+
+    /** The words the generated contents highlight, as a query would match them. */
+    static final String[] QUERY_WORDS = {"contrato", "empresa", "sociedade"};
+
+    /** Field lengths, in chars. */
+    public enum Size {
+        SHORT(600), MEDIUM(40_000), LARGE(3_000_000);
+
+        final int length;
+
+        Size(int length) {
+            this.length = length;
+        }
+    }
+
+    /** How often a query word is highlighted, one in this many words. */
+    public enum Density {
+        SPARSE(400), DENSE(12);
+
+        final int oneIn;
+
+        Density(int oneIn) {
+            this.oneIn = oneIn;
+        }
+    }
+
+    private PortugueseCorpus() {
+    }
+
+    static String content(Size size, Density density, long seed) {
+        Random random = new Random(seed);
+        StringBuilder content = new StringBuilder(size.length + size.length / 8);
+        int words = 0;
+        while (content.length() < size.length) {
+            if (words > 0)
+                content.append(random.nextInt(15) == 0 ? ", " : " ");
+            if (random.nextInt(density.oneIn) == 0) {
+                content.append(UtilsSearcher.RAW_HIGHLIGHT_CHAR)
+                       .append(QUERY_WORDS[random.nextInt(QUERY_WORDS.length)])
+                       .append(UtilsSearcher.RAW_HIGHLIGHT_CHAR);
+            }
+            else {
+                content.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (++words % 120 == 0)
+                content.append(". ").append(UtilsSearcher.RAW_SEPARATOR_CHAR);
+        }
+        return content.toString();
+    }
+
+    /**
+     * Returns a bolding query for the words the contents highlight.
+     */
+    static Query newQuery() {
+        Query query = new Query("/search/?query=contrato");
+        OrItem root = new OrItem();
+        for (String word : QUERY_WORDS)
+            root.addItem(new WordItem(word));
+        query.getModel().getQueryTree().setRoot(root);
+        query.getPresentation().setBolding(true);
+        return query;
+    }
+
+    private static final String[] WORDS = {
+            "o", "a", "os", "as", "de", "da", "do", "em", "no", "na", "por", "para", "com", "que", "não", "um", "uma",
+            "é", "foi", "ser", "ao", "pela", "pelo", "seu", "sua", "mais", "como", "mas", "também", "entre",
+            "tribunal", "recurso", "decisão", "réu", "autor", "processo", "sentença", "juiz", "acórdão", "pedido",
+            "ação", "cláusula", "obrigação", "pagamento", "prazo", "indenização", "dano", "moral", "direito",
+            "lei", "artigo", "parágrafo", "código", "civil", "penal", "trabalho", "execução", "cumprimento",
+            "apelação", "provimento", "improcedente", "procedente", "audiência", "testemunha", "prova", "perícia",
+            "honorários", "advogado", "ministério", "público", "estado", "município", "união", "federal",
+            "sócio", "capital", "quotas", "administração", "responsabilidade", "solidária", "credor", "devedor"
+    };
+
+}
@@ -0,0 +1,62 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.prelude.query.AndItem;
+import com.yahoo.prelude.query.NotItem;
+import com.yahoo.prelude.query.NullItem;
+import com.yahoo.prelude.query.PhraseItem;
+import com.yahoo.prelude.query.WordItem;
+import com.yahoo.search.Query;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.br.BrazilianAnalyzer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryMatchPlanTest {
+
+    private final Analyzer analyzer = new BrazilianAnalyzer();
+
+    @Test
+    void compilesWordsAndPhrasesButNotNegatives() {
+        PhraseItem phrase = new PhraseItem();
+        phrase.addItem(new WordItem("contrato"));
+        phrase.addItem(new WordItem("social"));
+
+        AndItem positive = new AndItem();
+        positive.addItem(new WordItem("Empresas"));
+        positive.addItem(phrase);
+
+        NotItem root = new NotItem();
+        root.addPositiveItem(positive);
+        root.addNegativeItem(new WordItem("falência"));
+
+        QueryMatchPlan plan = QueryMatchPlan.compile(root, analyzer);
+
+        assertEquals(Collections.singletonList("empres"), plan.terms());
+        assertEquals(Collections.singletonList(Arrays.asList("contrat", "social")), plan.phrases());
+        assertNotNull(plan.luceneQuery());
+    }
+
+    @Test
+    void emptyQueriesHaveNothingToMatch() {
+        assertTrue(QueryMatchPlan.compile(new NullItem(), analyzer).isEmpty());
+        assertTrue(QueryMatchPlan.compile(new WordItem("de"), analyzer).isEmpty());  // a stop word
+    }
+
+    @Test
+    void planIsCompiledOncePerQuery() {
+        Query query = new Query("/search/?query=carros");
+        query.getModel().getQueryTree().setRoot(new WordItem("carros"));
+
+        QueryMatchPlan plan = QueryMatchPlan.of(query, analyzer);
+        assertSame(plan, QueryMatchPlan.of(query, analyzer));
+        assertEquals(Collections.singletonList("carr"), plan.terms());
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.jdisc.Metric;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A metric keeping, per name and dimensions, the sum of the added values and
+ * the count of the set ones.
+ */
+class RecordingMetric implements Metric {
+
+    private final Map<String, Double> values = new ConcurrentHashMap<>();
+
+    @Override
+    public void set(String key, Number value, Context context) {
+        values.merge(key + context, 1.0, Double::sum);
+    }
+
+    @Override
+    public void add(String key, Number value, Context context) {
+        values.merge(key + context, value.doubleValue(), Double::sum);
+    }
+
+    @Override
+    public Context createContext(Map<String, ?> dimensions) {
+        return new RecordingContext(dimensions.toString());
+    }
+
+    /** Returns the sum of the added values, or the count of the set ones, of key in dimensions. */
+    double get(String key, Map<String, ?> dimensions) {
+        return values.getOrDefault(key + new RecordingContext(dimensions.toString()), 0.0);
+    }
+
+    private static class RecordingContext implements Context {
+
+        private final String dimensions;
+
+        RecordingContext(String dimensions) {
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public String toString() {
+            return dimensions;
+        }
+
+    }
+
+}
@@ -1,21 +1,52 @@
 package com.potelo.prelude.searcher;
 
+import com.potelo.prelude.hitfield.HitSnippets;
+import com.potelo.prelude.hitfield.TokenBoundaryCodec;
 import com.yahoo.component.ComponentId;
 import com.yahoo.component.chain.Chain;
 import com.yahoo.container.QrSearchersConfig;
+import com.yahoo.prelude.Index;
+import com.yahoo.prelude.IndexFacts;
+import com.yahoo.prelude.IndexModel;
+import com.yahoo.prelude.SearchDefinition;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.prelude.hitfield.HitField;
+import com.yahoo.prelude.query.WordItem;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
 import com.yahoo.search.Searcher;
+import com.yahoo.search.result.ErrorHit;
+import com.yahoo.search.result.ErrorMessage;
 import com.yahoo.search.searchchain.Execution;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 import com.yahoo.search.result.Hit;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static java.net.URLEncoder.encode;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SnipperSearcherTest {
 
+    private static final String HL = String.valueOf(UtilsSearcher.RAW_HIGHLIGHT_CHAR);
+    private static final String SUMMARY_CLASS = "default";
+
     @Test
     void test() {
 
@@ -25,7 +56,8 @@ class SnipperSearcherTest {
 
         QrSearchersConfig.Builder builder = new QrSearchersConfig.Builder();
 
-        SnipperSearcher searcher = new SnipperSearcher(new ComponentId("test"), builder.build());
+        SnipperSearcher searcher = new SnipperSearcher(new ComponentId("test"), builder.build(),
+                                                       new SnipperConfig.Builder().build(), new RecordingMetric());
 
         Chain<Searcher> myChain = new Chain<>(searcher);  // added to chain in this order
         Execution.Context context = Execution.Context.createContextStub();
@@ -34,4 +66,786 @@ class SnipperSearcherTest {
         Result result = execution.search(query);
     }
 
-}
\ No newline at end of file
+    @Test
+    void snippetsAndDynamicSnippetsAreGeneratedOnFill() throws Exception {
+        String text = filler(400) + " " + HL + "carros" + HL + " e " + HL + "motos" + HL + " " + filler(800)
+                      + " os " + HL + "carros" + HL + " no fim.";
+        Result result = searchAndFill(text);
+
+        Hit hit = result.hits().get(0);
+        JSONObject snippets = new JSONObject(hit.getField("snippets").toString());
+        JSONObject body = snippets.getJSONObject("body");
+        String stripped = text.replace(HL, "");
+        assertEquals(stripped.length(), body.getInt("fieldlength"));
+
+        JSONArray fieldSnippets = body.getJSONArray("fieldsnippets");
+        assertEquals(2, fieldSnippets.length());
+        int previousOffset = -1;
+        for (int i = 0; i < fieldSnippets.length(); ++i) {
+            JSONObject snippet = fieldSnippets.getJSONObject(i);
+            int offset = snippet.getInt("offset");
+            int length = snippet.getInt("length");
+            assertTrue(previousOffset < offset, "snippets must be in offset order");
+            assertTrue(280 <= length && length <= 320, "snippet of length " + length);
+            assertEquals("..." + stripped.substring(offset, offset + length) + "...", snippet.getString("content"));
+
+            JSONArray ranges = snippet.getJSONArray("highlightedranges");
+            for (int j = 0; j < ranges.length(); ++j) {
+                JSONObject range = ranges.getJSONObject(j);
+                int rangeOffset = range.getInt("offset");
+                assertTrue(offset <= rangeOffset && rangeOffset + range.getInt("length") <= offset + length);
+                assertTrue(stripped.startsWith("carros", rangeOffset) || stripped.startsWith("motos", rangeOffset));
+            }
+            previousOffset = offset;
+        }
+        assertEquals(2, fieldSnippets.getJSONObject(0).getJSONArray("highlightedranges").length());
+        assertEquals(1, fieldSnippets.getJSONObject(1).getJSONArray("highlightedranges").length());
+
+        String dynamicSnippet = hit.getField("body").toString();
+        assertFalse(dynamicSnippet.contains(HL));
+        assertTrue(dynamicSnippet.length() <= 320 + "...".length(), dynamicSnippet);
+    }
+
+    @Test
+    void fieldsWithoutHighlightsOnlyReportTheirLength() throws Exception {
+        Result result = searchAndFill(filler(100));
+
+        JSONObject body = new JSONObject(result.hits().get(0).getField("snippets").toString()).getJSONObject("body");
+        assertEquals(filler(100).length(), body.getInt("fieldlength"));
+        assertFalse(body.has("fieldsnippets"));
+    }
+
+    @Test
+    void snippetsAreRenderedAsValidJson() throws Exception {
+        String text = "Ele disse \"" + HL + "carros" + HL + "\"\n\tdepois saiu \\ \u0001 fim";
+        Result result = searchAndFill(text);
+
+        Object value = result.hits().get(0).getField("snippets");
+        assertTrue(value instanceof HitSnippets);
+        JSONObject snippet = new JSONObject(value.toString()).getJSONObject("body")
+                                                              .getJSONArray("fieldsnippets").getJSONObject(0);
+        assertEquals("..." + text.replace(HL, "") + "...", snippet.getString("content"));
+    }
+
+    @Test
+    void snippetsPerFieldAreLimitedByTheQuery() throws Exception {
+        String text = filler(400) + " " + HL + "carros" + HL + " " + filler(800) + " os " + HL + "carros" + HL + " no fim.";
+        Result result = searchAndFill(text, "&snipper.maxsnippets=1");
+
+        JSONObject body = new JSONObject(result.hits().get(0).getField("snippets").toString()).getJSONObject("body");
+        assertEquals(1, body.getJSONArray("fieldsnippets").length());
+    }
+
+    @Test
+    void invalidOverridesAreRejected() {
+        Result result = searchAndFill(filler(100), "&snipper.maxsnippets=-1");
+
+        assertNotNull(result.hits().getError());
+        assertEquals(0, result.getConcreteHitCount());
+    }
+
+    @Test
+    void invertedSnippetLengthBoundsAreRejected() {
+        SnipperConfig.Builder config = new SnipperConfig.Builder().lowerBoundSnippetLength(400).upperBoundSnippetLength(300);
+
+        assertThrows(IllegalArgumentException.class, () -> newSearcher(config));
+    }
+
+    @Test
+    void unknownFormatsAreRejected() {
+        Result result = searchAndFill(filler(100), "&snipper.format=tiny");
+
+        assertNotNull(result.hits().getError());
+        assertEquals(0, result.getConcreteHitCount());
+    }
+
+    @Test
+    void compactSnippetsHoldTheOffsetsOfTheFullOnes() throws Exception {
+        String text = filler(400) + " " + HL + "carros" + HL + " e " + HL + "motos" + HL + " " + filler(800)
+                      + " os " + HL + "carros" + HL + " no fim.";
+        JSONObject full = new JSONObject(searchAndFill(text).hits().get(0).getField("snippets").toString())
+                .getJSONObject("body");
+        String compactJson = searchAndFill(text, "&snipper.format=compact").hits().get(0).getField("snippets").toString();
+        JSONObject compact = new JSONObject(compactJson).getJSONObject("body");
+
+        assertFalse(compactJson.contains("content"));
+        assertEquals(full.getInt("fieldlength"), compact.getInt("fieldlength"));
+        JSONArray snippets = full.getJSONArray("fieldsnippets");
+        JSONArray offsets = compact.getJSONArray("snippets");
+        JSONArray highlights = compact.getJSONArray("highlights");
+        assertEquals(2 * snippets.length(), offsets.length());
+        int h = 0;
+        for (int i = 0; i < snippets.length(); ++i) {
+            JSONObject snippet = snippets.getJSONObject(i);
+            assertEquals(snippet.getInt("offset"), offsets.getInt(2 * i));
+            assertEquals(snippet.getInt("length"), offsets.getInt(2 * i + 1));
+            JSONArray ranges = snippet.getJSONArray("highlightedranges");
+            for (int j = 0; j < ranges.length(); ++j, ++h) {
+                assertEquals(ranges.getJSONObject(j).getInt("offset"), highlights.getInt(2 * h));
+                assertEquals(ranges.getJSONObject(j).getInt("length"), highlights.getInt(2 * h + 1));
+            }
+        }
+        assertEquals(2 * h, highlights.length());
+    }
+
+    @Test
+    void cachedSnippetsAreRenderedAsTheGeneratedOnes() throws Exception {
+        String text = filler(400) + " " + HL + "carros" + HL + " e " + HL + "motos" + HL + " " + filler(800)
+                      + " os " + HL + "carros" + HL + " no fim.";
+        SnipperSearcher searcher = newSearcher(new SnipperConfig.Builder().cacheSize(10));
+
+        Hit generated = execute(searcher, articleHit(text), "article", "").hits().get(0);
+        Hit cached = execute(searcher, articleHit(text), "article", "").hits().get(0);
+        assertEquals(generated.getField("snippets").toString(), cached.getField("snippets").toString());
+        assertEquals(generated.getField("body"), cached.getField("body"));
+    }
+
+    @Test
+    void snippetsOfFieldsOnlySnippedAreCachedWhateverTheQuery() {
+        Index title = new Index("title");
+        title.setHighlightSummary(true);
+        title.addCommand("snip");
+        SearchDefinition article = new SearchDefinition("article");
+        article.addIndex(title);
+        IndexFacts indexFacts = new IndexFacts(new IndexModel(article));
+        RecordingMetric metric = new RecordingMetric();
+        SnipperSearcher searcher = newSearcher(new SnipperConfig.Builder().cacheSize(10), metric);
+
+        Query other = newQuery("&language=en");
+        other.getModel().getQueryTree().setRoot(new WordItem("motos"));
+        for (Query query : List.of(newQuery(""), other)) {
+            FastHit hit = new FastHit("id:test:article::1", 1.0);
+            hit.setField("title", "Os " + HL + "carros" + HL + " novos");
+            hit.setField(Hit.SDDOCNAME_FIELD, "article");
+            Execution execution = new Execution(new Chain<>(searcher, new BackendStub(hit)),
+                                                Execution.Context.createContextStub(indexFacts));
+            execution.fill(execution.search(query), SUMMARY_CLASS);
+        }
+
+        Map<String, String> dimensions = new HashMap<>();
+        dimensions.put(SnippetMetrics.DOCUMENT_TYPE_DIMENSION, "article");
+        dimensions.put(SnippetMetrics.FIELD_DIMENSION, "title");
+        assertEquals(1, metric.get(SnippetMetrics.CACHE_HITS, dimensions));
+    }
+
+    @Test
+    void hitsAreSnippedOncePerSummaryClass() {
+        FastHit hit = articleHit(filler(100) + " " + HL + "carros" + HL);
+        hit.setField(Hit.SDDOCNAME_FIELD, "article");
+        Execution execution = newExecution(newSearcher(new SnipperConfig.Builder()), hit);
+
+        Result result = execution.search(newQuery(""));
+        assertNull(hit.getField("snippets"), "unfilled hits are snipped on fill");
+
+        execution.fill(result, SUMMARY_CLASS);
+        Object snippets = hit.getField("snippets");
+        assertNotNull(snippets);
+
+        execution.fill(result, SUMMARY_CLASS);
+        assertSame(snippets, hit.getField("snippets"));
+    }
+
+    @Test
+    void hitsWhichAreNotFillableAreSnippedOnce() {
+        FastHit hit = articleHit(filler(100) + " " + HL + "carros" + HL + " " + filler(400));
+        hit.setField(Hit.SDDOCNAME_FIELD, "article");
+        Execution execution = new Execution(new Chain<>(newSearcher(new SnipperConfig.Builder()), new UnfillableBackendStub(hit)),
+                                            Execution.Context.createContextStub(indexFacts()));
+
+        Result result = execution.search(newQuery(""));
+        Object snippets = hit.getField("snippets");
+        Object body = hit.getField("body");
+        assertTrue(snippets.toString().contains("highlightedranges"), snippets.toString());
+
+        execution.fill(result, SUMMARY_CLASS);
+        assertSame(snippets, hit.getField("snippets"));
+        assertSame(body, hit.getField("body"));
+    }
+
+    @Test
+    void metricsAreReportedPerDocumentTypeAndField() {
+        RecordingMetric metric = new RecordingMetric();
+        SnipperSearcher searcher = newSearcher(new SnipperConfig.Builder(), metric);
+        execute(searcher, articleHit(filler(400) + " " + HL + "carros" + HL + " " + filler(800)), "article", "");
+        execute(searcher, articleHit(filler(100)), "article", "");
+
+        Map<String, String> body = new HashMap<>();
+        body.put(SnippetMetrics.DOCUMENT_TYPE_DIMENSION, "article");
+        body.put(SnippetMetrics.FIELD_DIMENSION, "body");
+        assertEquals(2, metric.get(SnippetMetrics.SNIP_LATENCY, body));
+        assertEquals(1, metric.get(SnippetMetrics.SNIPPETS, body));
+        assertEquals(2, metric.get(SnippetMetrics.DYNSNIPS, body));
+        assertEquals(0, metric.get(SnippetMetrics.ERRORS, body));
+        assertEquals(2, metric.get(SnippetMetrics.SEQUENTIAL_HITS, new HashMap<>()));
+    }
+
+    @Test
+    void phasesAreTracedWhenTheTraceLevelIsHighEnough() {
+        String text = filler(400) + " " + HL + "carros" + HL + " " + filler(800);
+        Result result = searchAndFill(text, "&tracelevel=" + SnippetTrace.LEVEL);
+
+        String trace = result.getQuery().getContext(false).getTrace().toString();
+        assertTrue(trace.contains("snipper [default] id:test:article::1"), trace);
+        assertTrue(trace.contains("body (strip "), trace);
+        assertTrue(trace.contains("expand "), trace);
+        assertTrue(trace.contains("dynsnip "), trace);
+        assertTrue(trace.contains("1 hits in "), trace);
+
+        result = searchAndFill(text, "&tracelevel=" + (SnippetTrace.LEVEL - 1));
+        assertFalse(result.getQuery().getContext(false).getTrace().toString().contains("snipper"));
+    }
+
+    @Test
+    void windowedFieldsAreSnippedAsWholeOnes() {
+        String text = "Início " + filler(400) + " " + HL + "carros" + HL + " e " + HL + "motos" + HL + " " + filler(800)
+                      + " os " + HL + "carros" + HL + " " + filler(3000) + " " + HL + "carros" + HL + " no fim.";
+
+        Hit whole = execute(newSearcher(new SnipperConfig.Builder().windowedFieldLength(0)),
+                            articleHit(text), "article", "").hits().get(0);
+        Hit windowed = execute(newSearcher(new SnipperConfig.Builder().windowedFieldLength(1)),
+                               articleHit(text), "article", "").hits().get(0);
+        assertEquals(whole.getField("snippets").toString(), windowed.getField("snippets").toString());
+        assertEquals(whole.getField("body"), windowed.getField("body"));
+    }
+
+    @Test
+    void onlyTheScanLengthOfAFieldIsSnipped() throws Exception {
+        String text = filler(400) + " " + HL + "carros" + HL + " " + filler(800) + " os " + HL + "carros" + HL + " no fim.";
+        Hit hit = execute(newSearcher(new SnipperConfig.Builder().maxScanLength(1000)),
+                          articleHit(text), "article", "").hits().get(0);
+
+        JSONObject body = new JSONObject(hit.getField("snippets").toString()).getJSONObject("body");
+        // the unscanned text is counted as is, tags and all.
+        int scanned = text.substring(0, 1000).replace(HL, "").length();
+        assertEquals(scanned + text.length() - 1000, body.getInt("fieldlength"));
+        assertEquals(1, body.getJSONArray("fieldsnippets").length());
+    }
+
+    @Test
+    void wordBoundariesStoredAtFeedTimeAreUsed() {
+        String text = filler(400) + " " + HL + "carros" + HL + " e " + HL + "motos" + HL + " " + filler(800)
+                      + " os " + HL + "carros" + HL + " no fim.";
+        String encoded = TokenBoundaryCodec.encode(text.replace(HL, ""));
+        Hit scanned = searchAndFill(text).hits().get(0);
+
+        FastHit hit = articleHit(text);
+        hit.setField("body" + TokenBoundaryCodec.COMPANION_SUFFIX, encoded);
+        Hit decoded = execute(newSearcher(new SnipperConfig.Builder()), hit, "article", "").hits().get(0);
+        assertEquals(scanned.getField("snippets").toString(), decoded.getField("snippets").toString());
+        assertNull(decoded.getField("body" + TokenBoundaryCodec.COMPANION_SUFFIX), "companions aren't rendered");
+
+        // boundaries of another text are scanned again.
+        hit = articleHit(text);
+        hit.setField("body" + TokenBoundaryCodec.COMPANION_SUFFIX, TokenBoundaryCodec.encode(filler(100)));
+        Hit stale = execute(newSearcher(new SnipperConfig.Builder()), hit, "article", "").hits().get(0);
+        assertEquals(scanned.getField("snippets").toString(), stale.getField("snippets").toString());
+    }
+
+    @Test
+    void wordBoundariesOfFieldsBeyondTheMaxFieldsArentRendered() {
+        String body = filler(400) + " " + HL + "carros" + HL + " " + filler(800);
+        String title = "Os " + HL + "carros" + HL + " novos";
+        FastHit hit = articleHit(body);
+        hit.setField("title", title);
+        hit.setField("body" + TokenBoundaryCodec.COMPANION_SUFFIX, TokenBoundaryCodec.encode(body.replace(HL, "")));
+        hit.setField("title" + TokenBoundaryCodec.COMPANION_SUFFIX, TokenBoundaryCodec.encode(title.replace(HL, "")));
+        hit.setField(Hit.SDDOCNAME_FIELD, "article");
+        Execution execution = new Execution(new Chain<>(newSearcher(new SnipperConfig.Builder()), new BackendStub(hit)),
+                                            Execution.Context.createContextStub(indexFacts("body", "title")));
+
+        Result result = execution.search(newQuery("&snipper.maxfields=1"));
+        execution.fill(result, SUMMARY_CLASS);
+
+        assertNull(hit.getField("body" + TokenBoundaryCodec.COMPANION_SUFFIX));
+        assertNull(hit.getField("title" + TokenBoundaryCodec.COMPANION_SUFFIX), "companions of unprocessed fields aren't rendered");
+        assertTrue(hit.getField("snippets").toString().contains("\"body\""));
+        assertFalse(hit.getField("snippets").toString().contains("\"title\""), "only one field is processed");
+    }
+
+    @Test
+    void fieldsWithoutHighlightsGetNoSnippetsWhenTimeRunsShort() {
+        String text = "Os carros " + filler(800);
+        SnipperSearcher degrading = newSearcher(new SnipperConfig.Builder().leadingTextTimeLeft(3_600_000));
+
+        Hit full = execute(newSearcher(new SnipperConfig.Builder()), articleHit(text), "article", "").hits().get(0);
+        Hit degraded = execute(degrading, articleHit(text), "article", "").hits().get(0);
+        assertEquals(String.valueOf(full.getField("snippets")), String.valueOf(degraded.getField("snippets")));
+    }
+
+    @Test
+    void snippetsAreTheLeadingTextWhenTimeRunsShort() throws Exception {
+        String text = "Os " + HL + "carros" + HL + " " + filler(800) + " os " + HL + "carros" + HL + " no fim.";
+        RecordingMetric metric = new RecordingMetric();
+        // every query has less than an hour left.
+        SnipperSearcher searcher = newSearcher(new SnipperConfig.Builder().leadingTextTimeLeft(3_600_000).cacheSize(10),
+                                               metric);
+
+        Hit hit = execute(searcher, articleHit(text), "article", "").hits().get(0);
+        assertEquals(true, hit.getField(SnipperSearcher.DEGRADED_FIELD));
+
+        JSONObject body = new JSONObject(hit.getField("snippets").toString()).getJSONObject("body");
+        assertTrue(body.getBoolean("degraded"));
+        JSONArray snippets = body.getJSONArray("fieldsnippets");
+        assertEquals(1, snippets.length());
+        assertEquals(0, snippets.getJSONObject(0).getInt("offset"));
+        assertEquals(1, snippets.getJSONObject(0).getJSONArray("highlightedranges").length());
+        assertTrue(hit.getField("body").toString().startsWith("Os carros um texto"));
+
+        // degraded snippets aren't cached.
+        execute(searcher, articleHit(text), "article", "");
+        Map<String, String> dimensions = new HashMap<>();
+        dimensions.put(SnippetMetrics.DOCUMENT_TYPE_DIMENSION, "article");
+        dimensions.put(SnippetMetrics.FIELD_DIMENSION, "body");
+        assertEquals(2, metric.get(SnippetMetrics.DEGRADED_FIELDS, dimensions));
+        assertEquals(0, metric.get(SnippetMetrics.CACHE_HITS, dimensions));
+        assertEquals(2, metric.get(SnippetMetrics.DEGRADED_HITS, new HashMap<>()));
+    }
+
+    @Test
+    void dynamicSnippetsArePickedNativelyWhenTimeRunsShort() throws Exception {
+        String text = filler(400) + " " + HL + "carros" + HL + " " + filler(800);
+        Hit hit = execute(newSearcher(new SnipperConfig.Builder().noHighlighterTimeLeft(3_600_000)),
+                          articleHit(text), "article", "").hits().get(0);
+
+        JSONObject body = new JSONObject(hit.getField("snippets").toString()).getJSONObject("body");
+        assertFalse(body.has("degraded"));
+        assertEquals(1, body.getJSONArray("fieldsnippets").length());
+        assertTrue(hit.getField("body").toString().contains("<hi>carros</hi>"));
+        assertEquals(true, hit.getField(SnipperSearcher.DEGRADED_FIELD));
+
+        hit = execute(newSearcher(new SnipperConfig.Builder().noHighlighterTimeLeft(3_600_000)),
+                      articleHit(text), "article", "&snipper.dynsnip=native").hits().get(0);
+        assertNull(hit.getField(SnipperSearcher.DEGRADED_FIELD), "native dynamic snippets are no degradation");
+    }
+
+    @Test
+    void dynamicSnippetsArePickedFromTheBackendHighlightsWhenNative() {
+        String text = filler(400) + " " + HL + "carros" + HL + " e " + HL + "motos" + HL + " " + filler(800)
+                      + " os " + HL + "carros" + HL + " no fim.";
+        String body = searchAndFill(text, "&snipper.dynsnip=native").hits().get(0).getField("body").toString();
+
+        assertTrue(body.startsWith("<sep />texto"), body);
+        assertTrue(body.contains(" <hi>carros</hi> e <hi>motos</hi> "), body);
+        assertTrue(body.endsWith("<sep />"), body);
+
+        Result result = searchAndFill(text, "&snipper.dynsnip=juniper");
+        assertNotNull(result.hits().getError());
+    }
+
+    @Test
+    void hitsGetNoSnippetsWhenTimeRunsOut() {
+        String text = filler(400) + " " + HL + "carros" + HL + " " + filler(800);
+        Hit hit = execute(newSearcher(new SnipperConfig.Builder().noSnippetsTimeLeft(3_600_000)),
+                          articleHit(text), "article", "&tracelevel=" + SnippetTrace.LEVEL).hits().get(0);
+
+        assertNull(hit.getField("snippets"));
+        assertEquals(filler(320) + "<sep />", hit.getField("body").toString(),
+                     "the dynsnip field is cut to the upper bound length, not left whole");
+        assertEquals(true, hit.getField(SnipperSearcher.DEGRADED_FIELD));
+
+        hit = searchAndFill(text).hits().get(0);
+        assertNull(hit.getField(SnipperSearcher.DEGRADED_FIELD));
+    }
+
+    @Test
+    void hitsWithoutSnippetFieldsAreLeftAlone() {
+        Result result = execute(newSearcher(new SnipperConfig.Builder()), new FastHit("id:test:other::1", 1.0), "other", "");
+
+        assertNull(result.hits().get(0).getField("snippets"));
+    }
+
+    @Test
+    void hitsAreSnippedInBatchesWhileTheNextOnesAreFilled() {
+        RecordingMetric metric = new RecordingMetric();
+        SnipperSearcher searcher = newSearcher(new SnipperConfig.Builder().fillBatchSize(2), metric);
+        List<FastHit> hits = batchHits(5);
+        BatchBackendStub backend = new BatchBackendStub(hits, metric);
+        Execution execution = new Execution(new Chain<>(searcher, backend), Execution.Context.createContextStub(indexFacts()));
+
+        Result result = execution.search(newQuery(""));
+        execution.fill(result, SUMMARY_CLASS);
+
+        assertEquals(List.of(2, 2, 1), backend.batchSizes);
+        assertEquals(List.of(true, true), backend.previousBatchSnipped, "batches are filled while the previous one is snipped");
+        for (FastHit hit : hits)
+            assertNotNull(hit.getField("snippets"), hit.getId().toString());
+        assertEquals(5, metric.get(SnippetMetrics.SEQUENTIAL_HITS, new HashMap<>()));
+    }
+
+    @Test
+    void hitsOfAFailedBatchArentSnipped() {
+        List<FastHit> hits = batchHits(5);
+        BrokenBatchBackendStub backend = new BrokenBatchBackendStub(hits, 1, false);
+        Execution execution = new Execution(new Chain<>(newSearcher(new SnipperConfig.Builder().fillBatchSize(2)), backend),
+                                            Execution.Context.createContextStub(indexFacts()));
+
+        Result result = execution.search(newQuery(""));
+        execution.fill(result, SUMMARY_CLASS);
+
+        assertEquals(List.of(2, 2, 1), backend.batchSizes, "the batches after the failed one are filled");
+        assertEquals("Batch 1 failed", result.hits().getError().getDetailedMessage());
+        for (int i = 0; i < hits.size(); ++i)
+            assertEquals(i != 2 && i != 3, hits.get(i).getField("snippets") != null, hits.get(i).getId().toString());
+    }
+
+    @Test
+    void batchesArentFilledOnceAFillTimesOut() throws InterruptedException {
+        List<FastHit> hits = batchHits(5);
+        BrokenBatchBackendStub backend = new BrokenBatchBackendStub(hits, 1, true);
+        Execution execution = new Execution(new Chain<>(newSearcher(new SnipperConfig.Builder().fillBatchSize(2)), backend),
+                                            Execution.Context.createContextStub(indexFacts()));
+
+        Result result = execution.search(newQuery("&timeout=1"));
+        execution.fill(result, SUMMARY_CLASS);
+
+        assertEquals(List.of(2, 2), backend.batchSizes);
+        assertEquals(ErrorMessage.timeoutCode, result.hits().getError().getCode());
+        for (int i = 0; i < hits.size(); ++i)
+            assertEquals(i < 2, hits.get(i).getField("snippets") != null, hits.get(i).getId().toString());
+
+        // the stalled batch goes on filling its hits, so they're left out.
+        assertTrue(backend.stalledBatchFilled.await(10, TimeUnit.SECONDS));
+        assertEquals("filled late", hits.get(2).getField("summary"));
+        List<Hit> rendered = new ArrayList<>();
+        result.hits().deepIterator().forEachRemaining(rendered::add);
+        rendered.removeIf(hit -> hit instanceof ErrorHit);
+        assertEquals(List.of(hits.get(0), hits.get(1), hits.get(4)), rendered);
+    }
+
+    @Test
+    void hitsSnippedInParallelAreRenderedAsTheSequentialOnes() {
+        RecordingMetric sequentialMetric = new RecordingMetric();
+        RecordingMetric parallelMetric = new RecordingMetric();
+        String sequential = renderHits(new SnipperConfig.Builder().parallelism(1).parallelThreshold(8), sequentialMetric);
+        String parallel = renderHits(new SnipperConfig.Builder().parallelism(4).parallelThreshold(8), parallelMetric);
+
+        assertTrue(sequential.contains("fieldsnippets"), sequential);
+        assertEquals(sequential, parallel);
+        Map<String, String> article = new HashMap<>();
+        article.put(SnippetMetrics.DOCUMENT_TYPE_DIMENSION, "article");
+        assertEquals(1, sequentialMetric.get(SnippetMetrics.ERRORS, article));
+        assertEquals(1, parallelMetric.get(SnippetMetrics.ERRORS, article));
+        assertEquals(40, parallelMetric.get(SnippetMetrics.PARALLEL_HITS, new HashMap<>()));
+    }
+
+    @Test
+    void hitsAreSnippedWhenInterruptedWhileSnippingInParallel() {
+        String sequential = renderHits(new SnipperConfig.Builder().parallelism(1).parallelThreshold(8),
+                                       new RecordingMetric(), false);
+        String interrupted = renderHits(new SnipperConfig.Builder().parallelism(4).parallelThreshold(8),
+                                        new RecordingMetric(), true);
+
+        assertEquals(sequential, interrupted);
+    }
+
+    private static String renderHits(SnipperConfig.Builder config, RecordingMetric metric) {
+        return renderHits(config, metric, false);
+    }
+
+    // Searches and fills 40 hits of varied contents, one of them failing, the
+    // filling thread interrupted if asked to, and returns the fields of every hit.
+    private static String renderHits(SnipperConfig.Builder config, RecordingMetric metric, boolean interrupted) {
+        List<FastHit> hits = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            FastHit hit = i == 13 ? new FailingHit("id:test:article::" + i) : new FastHit("id:test:article::" + i, 1.0);
+            String body;
+            if (i % 4 == 0)
+                body = filler(100 + i);
+            else if (i % 4 == 1)
+                body = filler(50 * i) + " " + HL + "carros" + HL + " " + filler(400);
+            else if (i % 4 == 2)
+                body = HL + "carros" + HL + " " + filler(10 * i) + " e " + HL + "motos" + HL + " " + filler(900)
+                       + " " + HL + "carros" + HL + " no fim.";
+            else
+                body = "Os " + HL + "carros" + HL + " \"" + i + "\"\n\tdepois";
+            hit.setField("body", body);
+            hit.setField(Hit.SDDOCNAME_FIELD, "article");
+            hits.add(hit);
+        }
+        SnipperSearcher searcher = newSearcher(config, metric);
+        Execution execution = new Execution(new Chain<>(searcher, new HitsBackendStub(hits)),
+                                            Execution.Context.createContextStub(indexFacts()));
+        Result result = execution.search(newQuery(""));
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        execution.fill(result, SUMMARY_CLASS);
+        if (interrupted)
+            assertTrue(Thread.interrupted(), "the interrupt is kept");
+        searcher.deconstruct();
+
+        StringBuilder rendered = new StringBuilder();
+        for (Hit hit : result.hits())
+            rendered.append(hit.getId()).append(' ').append(new TreeMap<>(hit.fields())).append('\n');
+        return rendered.toString();
+    }
+
+    private static Result searchAndFill(String body) {
+        return searchAndFill(body, "");
+    }
+
+    private static Result searchAndFill(String body, String parameters) {
+        return execute(newSearcher(new SnipperConfig.Builder()), articleHit(body), "article", parameters);
+    }
+
+    private static FastHit articleHit(String body) {
+        FastHit hit = new FastHit("id:test:article::1", 1.0);
+        hit.setField("body", body);
+        return hit;
+    }
+
+    private static SnipperSearcher newSearcher(SnipperConfig.Builder config) {
+        return newSearcher(config, new RecordingMetric());
+    }
+
+    private static SnipperSearcher newSearcher(SnipperConfig.Builder config, RecordingMetric metric) {
+        return new SnipperSearcher(new ComponentId("test"), new QrSearchersConfig.Builder().build(), config.build(), metric);
+    }
+
+    private static Result execute(SnipperSearcher searcher, FastHit hit, String documentType, String parameters) {
+        hit.setField(Hit.SDDOCNAME_FIELD, documentType);
+
+        Execution execution = newExecution(searcher, hit);
+        Result result = execution.search(newQuery(parameters));
+        execution.fill(result, SUMMARY_CLASS);
+        return result;
+    }
+
+    private static Execution newExecution(SnipperSearcher searcher, FastHit hit) {
+        Chain<Searcher> chain = new Chain<>(searcher, new BackendStub(hit));
+        return new Execution(chain, Execution.Context.createContextStub(indexFacts()));
+    }
+
+    private static List<FastHit> batchHits(int count) {
+        List<FastHit> hits = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            FastHit hit = new FastHit("id:test:article::" + i, 1.0);
+            hit.setField("body", filler(100) + " " + HL + "carros" + HL);
+            hit.setField(Hit.SDDOCNAME_FIELD, "article");
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    private static Query newQuery(String parameters) {
+        Query query = new Query("/search/?query=carros" + parameters);
+        query.getModel().getQueryTree().setRoot(new WordItem("carros"));
+        query.getPresentation().setBolding(true);
+        return query;
+    }
+
+    private static IndexFacts indexFacts() {
+        return indexFacts("body");
+    }
+
+    private static IndexFacts indexFacts(String... fields) {
+        SearchDefinition article = new SearchDefinition("article");
+        for (String field : fields) {
+            Index index = new Index(field);
+            index.setHighlightSummary(true);
+            index.addCommand("snip");
+            index.addCommand("dynsnip");
+            article.addIndex(index);
+        }
+        return new IndexFacts(new IndexModel(article));
+    }
+
+    private static String filler(int length) {
+        StringBuilder filler = new StringBuilder();
+        while (filler.length() < length)
+            filler.append("um texto qualquer de preenchimento ");
+        return filler.substring(0, length).trim();
+    }
+
+    // Returns the hit unfilled on search, and marks it filled on fill.
+    private static class BackendStub extends Searcher {
+
+        private final FastHit hit;
+
+        BackendStub(FastHit hit) {
+            this.hit = hit;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            hit.setFillable();
+            result.hits().add(hit);
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            hit.setFilled(summaryClass);
+        }
+
+    }
+
+    // Returns the hits unfilled on search, and marks them filled on fill.
+    private static class HitsBackendStub extends Searcher {
+
+        private final List<FastHit> hits;
+
+        HitsBackendStub(List<FastHit> hits) {
+            this.hits = hits;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            for (FastHit hit : hits) {
+                hit.setFillable();
+                result.hits().add(hit);
+            }
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            for (Hit hit : result.hits())
+                hit.setFilled(summaryClass);
+        }
+
+    }
+
+    // Returns the hit as is on search, filled with every summary class, along
+    // with an unfilled hit, marked filled on fill.
+    private static class UnfillableBackendStub extends Searcher {
+
+        private final FastHit hit;
+
+        private final FastHit fillableHit = new FastHit("id:test:article::2", 0.5);
+
+        UnfillableBackendStub(FastHit hit) {
+            this.hit = hit;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            result.hits().add(hit);
+            fillableHit.setFillable();
+            result.hits().add(fillableHit);
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            fillableHit.setFilled(summaryClass);
+        }
+
+    }
+
+    // Returns the hits unfilled on search, and fills every batch but the broken
+    // one, which either fails or stalls until interrupted.
+    private static class BrokenBatchBackendStub extends Searcher {
+
+        private final List<FastHit> hits;
+        private final int brokenBatch;
+        private final boolean stalls;
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch stalledBatchFilled = new CountDownLatch(1);
+
+        BrokenBatchBackendStub(List<FastHit> hits, int brokenBatch, boolean stalls) {
+            this.hits = hits;
+            this.brokenBatch = brokenBatch;
+            this.stalls = stalls;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            for (FastHit hit : hits) {
+                hit.setFillable();
+                result.hits().add(hit);
+            }
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            int batch = batchSizes.size();
+            batchSizes.add(result.hits().size());
+            if (batch != brokenBatch) {
+                for (Hit hit : result.hits())
+                    hit.setFilled(summaryClass);
+            }
+            else if ( ! stalls) {
+                result.hits().addError(ErrorMessage.createBackendCommunicationError("Batch " + batch + " failed"));
+            }
+            else {
+                // the backend goes on filling the hits once interrupted.
+                try {
+                    Thread.sleep(60_000);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (Hit hit : result.hits())
+                    hit.setField("summary", "filled late");
+                stalledBatchFilled.countDown();
+            }
+        }
+
+    }
+
+    // A hit failing once it's snipped.
+    private static class FailingHit extends FastHit {
+
+        FailingHit(String id) {
+            super(id, 1.0);
+        }
+
+        @Override
+        public HitField buildHitField(String key, boolean forceNoPreTokenize) {
+            throw new IllegalStateException("Failing hit");
+        }
+
+    }
+
+    // Returns the hits unfilled on search, and fills each batch once the hits
+    // filled before it are snipped, or a while has passed.
+    private static class BatchBackendStub extends Searcher {
+
+        private final List<FastHit> hits;
+        private final RecordingMetric metric;
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        final List<Boolean> previousBatchSnipped = Collections.synchronizedList(new ArrayList<>());
+
+        BatchBackendStub(List<FastHit> hits, RecordingMetric metric) {
+            this.hits = hits;
+            this.metric = metric;
+        }
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            Result result = new Result(query);
+            for (FastHit hit : hits) {
+                hit.setFillable();
+                result.hits().add(hit);
+            }
+            return result;
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            int filledBefore = batchSizes.stream().mapToInt(Integer::intValue).sum();
+            if (filledBefore > 0)
+                previousBatchSnipped.add(awaitSnipped(filledBefore));
+            batchSizes.add(result.hits().size());
+            for (Hit hit : result.hits())
+                hit.setFilled(summaryClass);
+        }
+
+        private boolean awaitSnipped(int count) {
+            long end = System.currentTimeMillis() + 10_000;
+            while (metric.get(SnippetMetrics.SEQUENTIAL_HITS, new HashMap<>()) < count) {
+                if (System.currentTimeMillis() > end)
+                    return false;
+                Thread.onSpinWait();
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.language.Language;
+import com.yahoo.prelude.query.WordItem;
+import com.yahoo.search.Query;
+import org.apache.lucene.analysis.br.BrazilianAnalyzer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SnippetCacheTest {
+
+    private static final SnippetSettings SETTINGS = SnippetSettings.of(new Query("/search/"),
+                                                                        new SnipperConfig.Builder().build());
+
+    @Test
+    void evictsTheLeastRecentlyUsedFields() {
+        SnippetCache cache = new SnippetCache(2, 1);
+        QueryMatchPlan plan = plan("carros");
+        cache.put(key("1", plan), new SnippetCache.Entry(null, "um"));
+        cache.put(key("2", plan), new SnippetCache.Entry(null, "dois"));
+        assertNotNull(cache.get(key("1", plan)));
+
+        cache.put(key("3", plan), new SnippetCache.Entry(null, "tres"));
+        assertNull(cache.get(key("2", plan)));
+        assertEquals("um", cache.get(key("1", plan)).dynamicSnippet);
+        assertEquals("tres", cache.get(key("3", plan)).dynamicSnippet);
+
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void keysTellQueriesAndContentsApart() {
+        SnippetCache cache = new SnippetCache(16, 4);
+        cache.put(key("1", plan("carros")), new SnippetCache.Entry(null, "carros"));
+
+        assertNotNull(cache.get(key("1", plan("carro"))));
+        assertNull(cache.get(key("1", plan("motos"))));
+        assertNull(cache.get(new SnippetCache.Key("1", "body", "outro texto", plan("carros"), Language.PORTUGUESE, SETTINGS, true)));
+        assertNull(cache.get(new SnippetCache.Key("1", "body", "texto", plan("carros"), Language.PORTUGUESE, SETTINGS, false)));
+        assertNull(cache.get(new SnippetCache.Key("1", "body", "texto", plan("carros"), Language.ENGLISH, SETTINGS, true)),
+                   "the same plan in another language is analyzed differently");
+    }
+
+    private static SnippetCache.Key key(String documentId, QueryMatchPlan plan) {
+        return new SnippetCache.Key(documentId, "body", "texto", plan, Language.PORTUGUESE, SETTINGS, true);
+    }
+
+    private static QueryMatchPlan plan(String word) {
+        return QueryMatchPlan.compile(new WordItem(word), new BrazilianAnalyzer());
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.potelo.prelude.searcher;
+
+import com.yahoo.prelude.Index;
+import com.yahoo.prelude.IndexFacts;
+import com.yahoo.prelude.IndexModel;
+import com.yahoo.prelude.SearchDefinition;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnippetFieldPlanTest {
+
+    @Test
+    void onlyHighlightedSnipAndDynsnipFieldsArePlanned() {
+        SnippetFieldPlan plan = new SnippetFieldPlan.Cache().get(indexFacts(), "article");
+
+        assertEquals(2, plan.fields().size());
+        SnippetFieldPlan.Field body = plan.fields().get(0);
+        assertEquals("body", body.name);
+        assertTrue(body.snip);
+        assertTrue(body.dynsnip);
+        SnippetFieldPlan.Field title = plan.fields().get(1);
+        assertEquals("title", title.name);
+        assertTrue(title.snip);
+        assertFalse(title.dynsnip);
+
+        assertTrue(new SnippetFieldPlan.Cache().get(indexFacts(), "unknown").isEmpty());
+    }
+
+    @Test
+    void plansAreResolvedAgainForNewIndexFacts() {
+        SnippetFieldPlan.Cache cache = new SnippetFieldPlan.Cache();
+        IndexFacts indexFacts = indexFacts();
+
+        SnippetFieldPlan plan = cache.get(indexFacts, "article");
+        assertSame(plan, cache.get(indexFacts, "article"));
+        assertNotSame(plan, cache.get(indexFacts(), "article"));
+    }
+
+    private static IndexFacts indexFacts() {
+        SearchDefinition article = new SearchDefinition("article");
+        article.addIndex(index("body", true, false, "snip", "dynsnip"));
+        article.addIndex(index("title", true, false, "snip"));
+        article.addIndex(index("summary", true, true, "snip"));
+        article.addIndex(index("author", false, false, "snip", "dynsnip"));
+        article.addIndex(index("tags", true, false));
+        return new IndexFacts(new IndexModel(article));
+    }
+
+    private static Index index(String name, boolean highlighted, boolean dynamic, String... commands) {
+        Index index = new Index(name);
+        index.setHighlightSummary(highlighted);
+        index.setDynamicSummary(dynamic);
+        for (String command : commands)
+            index.addCommand(command);
+        return index;
+    }
+
+}
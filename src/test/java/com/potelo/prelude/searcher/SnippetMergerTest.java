@@ -0,0 +1,124 @@
+package com.potelo.prelude.searcher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnippetMergerTest {
+
+    private static final int UPPER_BOUND = 320;
+
+    @Test
+    void mergesClosestNeighboursFirst() {
+        // 0-10 and 400-410 are too far apart, 400-410 and 415-420 are close.
+        int[] starts = {0, 400, 415};
+        int[] ends = {10, 410, 420};
+
+        SnippetMerger merger = new SnippetMerger();
+        assertEquals(2, merger.merge(starts, ends, 3, UPPER_BOUND));
+        assertEquals("[0-0, 1-2]", snippets(merger, 2));
+
+        assertEquals(1, merger.merge(starts, ends, 1, UPPER_BOUND));
+        assertEquals("[0-0]", snippets(merger, 1));
+    }
+
+    @Test
+    void producesTheSameSnippetsAsThePairwiseQueueMerge() {
+        Random random = new Random(42);
+        SnippetMerger merger = new SnippetMerger();
+        for (int round = 0; round < 2000; ++round) {
+            int count = 1 + random.nextInt(60);
+            int[] starts = new int[count];
+            int[] ends = new int[count];
+            int position = random.nextInt(50);
+            for (int i = 0; i < count; ++i) {
+                // dense rounds make many equal distances, sparse ones many rejected merges.
+                position += random.nextInt(round % 2 == 0 ? 8 : 300);
+                starts[i] = position;
+                position += 1 + random.nextInt(12);
+                ends[i] = position;
+            }
+
+            int snippetCount = merger.merge(starts, ends, count, UPPER_BOUND);
+            assertEquals(queueMerge(starts, ends, count), snippets(merger, snippetCount),
+                         "ranges " + Arrays.toString(starts) + " " + Arrays.toString(ends));
+        }
+    }
+
+    private static String snippets(SnippetMerger merger, int snippetCount) {
+        List<String> snippets = new ArrayList<>();
+        for (int k = 0; k < snippetCount; ++k)
+            snippets.add(merger.first(k) + "-" + merger.last(k));
+        return snippets.toString();
+    }
+
+    // The merge SnipperSearcher used to run: a queue of boxed neighbour pairs
+    // and a map from ranges to their snippets, as [first, last] range indexes.
+    private static String queueMerge(int[] starts, int[] ends, int count) {
+        Comparator<int[]> byDistanceThenOffset = (x, y) -> x[0] != y[0] ? Integer.compare(x[0], y[0])
+                                                                         : Integer.compare(x[1], y[1]);
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, count), byDistanceThenOffset);
+        for (int i = 1; i < count; ++i)
+            queue.add(new int[] {starts[i] - ends[i - 1], starts[i - 1], i - 1, i});
+
+        Map<Integer, int[]> range2Snippet = new HashMap<>();
+        if (count == 1)
+            range2Snippet.put(0, new int[] {0, 0});
+        while ( ! queue.isEmpty()) {
+            int[] pair = queue.remove();
+            int fst = pair[2], snd = pair[3];
+            int[] snippet1 = range2Snippet.get(fst);
+            int[] snippet2 = range2Snippet.get(snd);
+
+            if (snippet1 != null && snippet2 != null) {
+                if (ends[snippet2[1]] - starts[snippet1[0]] <= UPPER_BOUND) {
+                    snippet1[1] = snippet2[1];
+                    for (int i = snippet2[0]; i <= snippet2[1]; ++i)
+                        range2Snippet.put(i, snippet1);
+                }
+            }
+            else if (snippet1 != null) {
+                if (ends[snd] - starts[snippet1[0]] < UPPER_BOUND) {
+                    snippet1[1] = snd;
+                    range2Snippet.put(snd, snippet1);
+                }
+                else
+                    range2Snippet.put(snd, new int[] {snd, snd});
+            }
+            else if (snippet2 != null) {
+                if (ends[snippet2[1]] - starts[fst] < UPPER_BOUND) {
+                    snippet2[0] = fst;
+                    range2Snippet.put(fst, snippet2);
+                }
+                else
+                    range2Snippet.put(fst, new int[] {fst, fst});
+            }
+            else {
+                if (ends[snd] - starts[fst] < UPPER_BOUND) {
+                    int[] snippet = {fst, snd};
+                    range2Snippet.put(fst, snippet);
+                    range2Snippet.put(snd, snippet);
+                }
+                else {
+                    range2Snippet.put(fst, new int[] {fst, fst});
+                    range2Snippet.put(snd, new int[] {snd, snd});
+                }
+            }
+        }
+
+        List<String> snippets = new ArrayList<>();
+        for (int i = 0; i < count; i = range2Snippet.get(i)[1] + 1)
+            snippets.add(range2Snippet.get(i)[0] + "-" + range2Snippet.get(i)[1]);
+        return snippets.toString();
+    }
+
+}
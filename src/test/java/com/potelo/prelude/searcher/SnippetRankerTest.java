@@ -0,0 +1,69 @@
+package com.potelo.prelude.searcher;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnippetRankerTest {
+
+    private static final int UPPER_BOUND = 320;
+
+    @Test
+    void keepsTheBestSnippetsInOffsetOrder() {
+        // carros alone, then carros twice, then carros and motos, far apart.
+        String text = pad("carros") + pad("carros carros") + pad("carros motos");
+        int[] starts = {0, 1000, 1007, 2000, 2007};
+        int[] ends = {6, 1006, 1013, 2006, 2012};
+
+        SnippetMerger merger = new SnippetMerger();
+        assertEquals(3, merger.merge(starts, ends, 5, UPPER_BOUND));
+
+        SnippetRanker ranker = new SnippetRanker();
+        assertEquals(2, ranker.select(merger, 3, 2, text, starts, ends));
+        assertEquals(1, ranker.first(0));
+        assertEquals(3, ranker.first(1));
+
+        assertEquals(1, ranker.select(merger, 3, 1, text, starts, ends));
+        assertEquals(3, ranker.first(0));
+        assertEquals(4, ranker.last(0));
+    }
+
+    @Test
+    void keepsEverySnippetUnderTheLimit() {
+        String text = pad("carros") + pad("motos");
+        int[] starts = {0, 1000};
+        int[] ends = {6, 1005};
+
+        SnippetMerger merger = new SnippetMerger();
+        assertEquals(2, merger.merge(starts, ends, 2, UPPER_BOUND));
+
+        SnippetRanker ranker = new SnippetRanker();
+        assertEquals(2, ranker.select(merger, 2, 5, text, starts, ends));
+        assertEquals(0, ranker.first(0));
+        assertEquals(1, ranker.first(1));
+    }
+
+    @Test
+    void earlierSnippetsWinTies() {
+        String text = pad("Carros") + pad("carros") + pad("CARROS");
+        int[] starts = {0, 1000, 2000};
+        int[] ends = {6, 1006, 2006};
+
+        SnippetMerger merger = new SnippetMerger();
+        assertEquals(3, merger.merge(starts, ends, 3, UPPER_BOUND));
+
+        SnippetRanker ranker = new SnippetRanker();
+        assertEquals(2, ranker.select(merger, 3, 2, text, starts, ends));
+        assertEquals(0, ranker.first(0));
+        assertEquals(1, ranker.first(1));
+    }
+
+    // Returns words padded with spaces up to a thousand chars.
+    private static String pad(String words) {
+        StringBuilder padded = new StringBuilder(words);
+        while (padded.length() < 1000)
+            padded.append(' ');
+        return padded.toString();
+    }
+
+}